@@ -0,0 +1,24 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.core.util;
+
+/**
+ * Stands for the Base64 of the ECF identity bundle which is not published on maven central.
+ * Only the method called by the ArgumentsLoader is provided.
+ * It relies on java.util.Base64 of Java 8, the level of this module, not the J2SE-1.5 of the plugin.
+ */
+public class Base64 {
+
+	public static String encode(byte[] data) {
+		return java.util.Base64.getEncoder().encodeToString(data);
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.CoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolution of the ${sysprop,default} placeholders and merge of the arguments
+ * defined in properties files with the ones of the command line.
+ * <p>
+ * The properties files are written in a temporary folder and loaded through file: urls.
+ * Loaded properties files are cached by the ArgumentsLoader: after the first invocation
+ * loadArgumentsInPropertiesFiles measures the merge and the resolution of the values.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArgumentsLoaderBenchmark {
+
+	private static final String SYSPROP_PREFIX = "bench.argumentsloader."; //$NON-NLS-1$
+
+	/** number of placeholders in the value resolved and of arguments in each properties file */
+	@Param({"10", "1000"})
+	public int placeholders;
+
+	private String value;
+	private URL propFile;
+	private File folder;
+	private String[] commandLine;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < placeholders; i++) {
+			if (i % 2 == 0) {
+				System.setProperty(SYSPROP_PREFIX + i, "value" + i); //$NON-NLS-1$
+			}
+			//half of them are defined; the others fall back on a nested default.
+			sb.append("/${").append(SYSPROP_PREFIX).append(i) //$NON-NLS-1$
+				.append(",${").append(SYSPROP_PREFIX).append(i + 1).append(",default}}"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		value = sb.toString();
+
+		folder = File.createTempFile("argumentsloader", ".bench"); //$NON-NLS-1$ //$NON-NLS-2$
+		folder.delete();
+		folder.mkdirs();
+		File overriding = writeProperties("overriding.properties", 0, placeholders / 2); //$NON-NLS-1$
+		File defaults = writeProperties("defaults.properties", placeholders / 4, placeholders); //$NON-NLS-1$
+		propFile = defaults.toURI().toURL();
+		commandLine = new String[] {
+				"-props", defaults.toURI().toString(), //$NON-NLS-1$
+				"-props20", overriding.toURI().toString(), //$NON-NLS-1$
+				"-repository", "http://example.com/repository", //$NON-NLS-1$ //$NON-NLS-2$
+				"-installIU", "org.example.product", //$NON-NLS-1$ //$NON-NLS-2$
+				"-addSources" }; //$NON-NLS-1$
+	}
+
+	private File writeProperties(String name, int from, int to) throws IOException {
+		File f = new File(folder, name);
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "ISO-8859-1"); //$NON-NLS-1$
+		try {
+			for (int i = from; i < to; i++) {
+				w.write("-arg" + i + "=${" + SYSPROP_PREFIX + i + ",${this.properties.server}/path" + i + "}\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
+		} finally {
+			w.close();
+		}
+		return f;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (int i = 0; i < placeholders; i++) {
+			System.clearProperty(SYSPROP_PREFIX + i);
+		}
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		folder.delete();
+	}
+
+	@Benchmark
+	public String resolvePropertyValue() {
+		return ArgumentsLoader.resolvePropertyValue(value, propFile);
+	}
+
+	@Benchmark
+	public ArrayList<String> loadArgumentsInPropertiesFiles() throws CoreException {
+		return ArgumentsLoader.loadArgumentsInPropertiesFiles(commandLine);
+	}
+
+}
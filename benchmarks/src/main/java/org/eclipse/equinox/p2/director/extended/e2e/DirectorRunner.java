@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.e2e;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the director application of an installed director product in a new JVM.
+ * <p>
+ * Each run forks a JVM with the class path of this one which re-enters {@link #main(String[])}:
+ * the framework is started from its own class loader and its own configuration area;
+ * the bundles and the config.ini are read from the configuration of the product through
+ * a cascaded configuration. The child measures its own peak heap and writes it to a file
+ * before exiting: the heap of the harness is not part of it.
+ * </p>
+ */
+public class DirectorRunner {
+
+	public static final String DEFAULT_APPLICATION = "org.eclipse.equinox.p2.director.extended"; //$NON-NLS-1$
+
+	private static final String PEAK_HEAP_FILE = "peak-heap.txt"; //$NON-NLS-1$
+
+	private final File eclipse;
+	private final File osgiJar;
+	private String application = DEFAULT_APPLICATION;
+
+	/**
+	 * @param eclipse The folder of the director product.
+	 */
+	public DirectorRunner(File eclipse) {
+		this.eclipse = eclipse;
+		File[] jars = new File(eclipse, "plugins").listFiles(new FileFilter() { //$NON-NLS-1$
+			public boolean accept(File f) {
+				return f.getName().startsWith("org.eclipse.osgi_") && f.getName().endsWith(".jar"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		});
+		if (jars == null || jars.length == 0) {
+			throw new IllegalArgumentException("No org.eclipse.osgi bundle in " + eclipse + "/plugins"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		this.osgiJar = jars[0];
+	}
+
+	public void setApplication(String application) {
+		this.application = application;
+	}
+
+	/**
+	 * The outcome of a run.
+	 */
+	public static class Result {
+		public final Object exitCode;
+		public final long elapsed;
+		public final long peakHeap;
+		public final Throwable failure;
+
+		Result(Object exitCode, long elapsed, long peakHeap, Throwable failure) {
+			this.exitCode = exitCode;
+			this.elapsed = elapsed;
+			this.peakHeap = peakHeap;
+			this.failure = failure;
+		}
+
+		public boolean isOK() {
+			return failure == null && Integer.valueOf(0).equals(exitCode);
+		}
+	}
+
+	/**
+	 * @param args The arguments of the director application
+	 * @param configuration An empty folder for the configuration area of this run
+	 * @return The outcome of the run; the elapsed time includes the start of the JVM.
+	 */
+	public Result run(String[] args, File configuration) {
+		configuration.mkdirs();
+		File peakHeapFile = new File(configuration, PEAK_HEAP_FILE);
+		peakHeapFile.delete();
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		command.add("-cp"); //$NON-NLS-1$
+		command.add(System.getProperty("java.class.path")); //$NON-NLS-1$
+		command.add("-Dosgi.install.area=" + eclipse.toURI()); //$NON-NLS-1$
+		command.add("-Dosgi.configuration.area=" + configuration.toURI()); //$NON-NLS-1$
+		command.add("-Dosgi.sharedConfiguration.area=" + new File(eclipse, "configuration").toURI()); //$NON-NLS-1$ //$NON-NLS-2$
+		command.add("-Dosgi.configuration.cascaded=true"); //$NON-NLS-1$
+		command.add("-Dosgi.framework=" + osgiJar.toURI()); //$NON-NLS-1$
+		command.add("-Declipse.application=" + application); //$NON-NLS-1$
+		command.add("-Declipse.consoleLog=true"); //$NON-NLS-1$
+		command.add(DirectorRunner.class.getName());
+		command.add(osgiJar.getAbsolutePath());
+		command.add(peakHeapFile.getAbsolutePath());
+		command.addAll(Arrays.asList(args));
+
+		long start = System.currentTimeMillis();
+		Integer exitCode = null;
+		Throwable failure = null;
+		try {
+			Process process = new ProcessBuilder(command).inheritIO().start();
+			exitCode = Integer.valueOf(process.waitFor());
+			if (exitCode.intValue() != 0) {
+				failure = new IllegalStateException("The director exited with " + exitCode); //$NON-NLS-1$
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure = e;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		return new Result(exitCode, elapsed, readPeakHeap(peakHeapFile), failure);
+	}
+
+	/**
+	 * @return The peak heap written by the child or -1 if it did not write it.
+	 */
+	private static long readPeakHeap(File file) {
+		if (!file.exists()) {
+			return -1;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+			try {
+				return Long.parseLong(reader.readLine().trim());
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			return -1;
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * The forked JVM: starts the framework and runs the application set by the system properties.
+	 * @param args The org.eclipse.osgi jar, the file where the peak heap is written
+	 * and the arguments of the director application.
+	 */
+	public static void main(String[] args) throws Throwable {
+		File osgiJar = new File(args[0]);
+		File peakHeapFile = new File(args[1]);
+		String[] directorArgs = new String[args.length - 2];
+		System.arraycopy(args, 2, directorArgs, 0, directorArgs.length);
+		Object exitCode;
+		try {
+			exitCode = launch(osgiJar, directorArgs);
+		} finally {
+			Writer w = new OutputStreamWriter(new FileOutputStream(peakHeapFile), "UTF-8"); //$NON-NLS-1$
+			try {
+				w.write(Long.toString(getPeakHeap()));
+			} finally {
+				w.close();
+			}
+		}
+		System.exit(exitCode instanceof Integer ? ((Integer) exitCode).intValue() : 1);
+	}
+
+	private static Object launch(File osgiJar, String[] args) throws Throwable {
+		URLClassLoader loader = new URLClassLoader(new URL[] {osgiJar.toURI().toURL()}, null);
+		Thread.currentThread().setContextClassLoader(loader);
+		try {
+			Class<?> starter = loader.loadClass("org.eclipse.core.runtime.adaptor.EclipseStarter"); //$NON-NLS-1$
+			Method run = starter.getMethod("run", String[].class, Runnable.class); //$NON-NLS-1$
+			return run.invoke(null, args, null);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @return The sum of the peak usages of the heap pools of this JVM.
+	 */
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+}
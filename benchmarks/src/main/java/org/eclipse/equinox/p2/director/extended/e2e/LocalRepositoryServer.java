@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.e2e;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a folder over HTTP on the loopback interface so that the repositories
+ * are downloaded through the XHttpClient transfers instead of being read from the disk.
+ * <p>
+ * Optionally requires basic authentication, to exercise the credentials passed in the url,
+ * and adds a fixed latency to each request to simulate a remote server.
+ * Answers HEAD and GET, including single byte ranges, and the conditional requests
+ * with If-None-Match or If-Modified-Since.
+ * </p>
+ */
+public class LocalRepositoryServer {
+
+	private final File root;
+	private final String authorization;
+	private final int latency;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong challenges = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * @param root The folder served
+	 * @param credentials user:password required by the server or null
+	 * @param latency The delay in ms before each response
+	 */
+	public LocalRepositoryServer(File root, String credentials, int latency) {
+		this.root = root;
+		this.authorization = credentials == null ? null
+				: "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes()); //$NON-NLS-1$
+		this.latency = latency;
+	}
+
+	/**
+	 * @return The port the server listens to.
+	 */
+	public int start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64); //$NON-NLS-1$
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() { //$NON-NLS-1$
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getChallenges() {
+		return challenges.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (authorization != null && !authorization.equals(exchange.getRequestHeaders().getFirst("Authorization"))) { //$NON-NLS-1$
+			challenges.incrementAndGet();
+			exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"bench\""); //$NON-NLS-1$ //$NON-NLS-2$
+			exchange.sendResponseHeaders(401, -1);
+			return;
+		}
+		String method = exchange.getRequestMethod();
+		File f = new File(root, exchange.getRequestURI().getPath());
+		if (!f.getCanonicalPath().startsWith(root.getCanonicalPath()) || !f.isFile()) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		long length = f.length();
+		long start = 0;
+		long end = length - 1;
+		int status = 200;
+		String range = exchange.getRequestHeaders().getFirst("Range"); //$NON-NLS-1$
+		if (range != null && range.startsWith("bytes=") && range.indexOf(',') == -1) { //$NON-NLS-1$
+			int dash = range.indexOf('-');
+			String from = range.substring("bytes=".length(), dash); //$NON-NLS-1$
+			String to = range.substring(dash + 1);
+			if (from.length() != 0) {
+				start = Long.parseLong(from);
+				if (to.length() != 0) {
+					end = Math.min(end, Long.parseLong(to));
+				}
+			} else if (to.length() != 0) {
+				start = Math.max(0, length - Long.parseLong(to));
+			}
+			if (start > end) {
+				exchange.getResponseHeaders().set("Content-Range", "bytes */" + length); //$NON-NLS-1$ //$NON-NLS-2$
+				exchange.sendResponseHeaders(416, -1);
+				return;
+			}
+			status = 206;
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + start + '-' + end + '/' + length); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		SimpleDateFormat httpDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US); //$NON-NLS-1$
+		httpDate.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+		String lastModified = httpDate.format(new Date(f.lastModified()));
+		String etag = "\"" + Long.toHexString(f.lastModified()) + '-' + Long.toHexString(length) + '"'; //$NON-NLS-1$
+		exchange.getResponseHeaders().set("Last-Modified", lastModified); //$NON-NLS-1$
+		exchange.getResponseHeaders().set("ETag", etag); //$NON-NLS-1$
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match"); //$NON-NLS-1$
+		String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since"); //$NON-NLS-1$
+		if (ifNoneMatch != null ? ifNoneMatch.equals(etag) : lastModified.equals(ifModifiedSince)) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		exchange.getResponseHeaders().set("Accept-Ranges", "bytes"); //$NON-NLS-1$ //$NON-NLS-2$
+		long count = end - start + 1;
+		if (method.equals("HEAD")) { //$NON-NLS-1$
+			exchange.getResponseHeaders().set("Content-Length", Long.toString(count)); //$NON-NLS-1$
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		//a length of 0 would mean chunked.
+		exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+		InputStream in = new FileInputStream(f);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			long skipped = 0;
+			while (skipped < start) {
+				long n = in.skip(start - skipped);
+				if (n <= 0) {
+					throw new IOException("Unable to skip to " + start + " in " + f); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				skipped += n;
+			}
+			byte[] buf = new byte[8192];
+			long remaining = count;
+			while (remaining > 0) {
+				int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if (n == -1) {
+					break;
+				}
+				out.write(buf, 0, n);
+				//counted as they are sent: a client may abort in the middle of the body.
+				bytes.addAndGet(n);
+				remaining -= n;
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.e2e;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end provisioning benchmark: generates a synthetic repository on the local disk,
+ * optionally serves it through a local HTTP server and runs the director on it.
+ * <p>
+ * Each run installs the feature group of the repository in a new destination, then adds
+ * the source bundles with -addSources, then runs -addSources again when the sources are up to date.
+ * Each phase runs in a new JVM: its elapsed time and its peak heap are written to a JSON report.
+ * </p>
+ * <pre>
+ * java -cp benchmarks.jar org.eclipse.equinox.p2.director.extended.e2e.ProvisioningHarness
+ *   -eclipse &lt;director product folder&gt; [-work &lt;folder&gt;] [-bundles 500] [-shape chain|tree|random]
+ *   [-degree 3] [-payload 16384] [-noSources] [-http] [-auth user:password] [-latency ms]
+ *   [-runs 1] [-report &lt;file.json&gt;] [-application &lt;id&gt;]
+ * </pre>
+ */
+public class ProvisioningHarness {
+
+	private File eclipse;
+	private File work;
+	private File report;
+	private boolean http;
+	private String auth;
+	private int latency;
+	private int runs = 1;
+	private String application = DirectorRunner.DEFAULT_APPLICATION;
+	private final SyntheticRepository generator = new SyntheticRepository();
+
+	private final StringBuilder json = new StringBuilder();
+
+	public static void main(String[] args) throws Exception {
+		ProvisioningHarness harness = new ProvisioningHarness();
+		harness.processArguments(args);
+		System.exit(harness.execute() ? 0 : 1);
+	}
+
+	private void processArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String opt = args[i];
+			if (opt.equals("-noSources")) { //$NON-NLS-1$
+				generator.setSources(false);
+				continue;
+			}
+			if (opt.equals("-http")) { //$NON-NLS-1$
+				http = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value for " + opt); //$NON-NLS-1$
+			}
+			String arg = args[++i];
+			if (opt.equals("-eclipse")) { //$NON-NLS-1$
+				eclipse = new File(arg);
+			} else if (opt.equals("-work")) { //$NON-NLS-1$
+				work = new File(arg);
+			} else if (opt.equals("-report")) { //$NON-NLS-1$
+				report = new File(arg);
+			} else if (opt.equals("-bundles")) { //$NON-NLS-1$
+				generator.setBundles(Integer.parseInt(arg));
+			} else if (opt.equals("-shape")) { //$NON-NLS-1$
+				generator.setShape(arg);
+			} else if (opt.equals("-degree")) { //$NON-NLS-1$
+				generator.setDegree(Integer.parseInt(arg));
+			} else if (opt.equals("-payload")) { //$NON-NLS-1$
+				generator.setPayload(Integer.parseInt(arg));
+			} else if (opt.equals("-auth")) { //$NON-NLS-1$
+				auth = arg;
+				http = true;
+			} else if (opt.equals("-latency")) { //$NON-NLS-1$
+				latency = Integer.parseInt(arg);
+			} else if (opt.equals("-runs")) { //$NON-NLS-1$
+				runs = Integer.parseInt(arg);
+			} else if (opt.equals("-application")) { //$NON-NLS-1$
+				application = arg;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + opt); //$NON-NLS-1$
+			}
+		}
+		if (eclipse == null) {
+			throw new IllegalArgumentException("-eclipse <director product folder> is required"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * @return true if all the runs succeeded.
+	 */
+	private boolean execute() throws IOException {
+		if (work == null) {
+			work = File.createTempFile("p2bench", ""); //$NON-NLS-1$ //$NON-NLS-2$
+			work.delete();
+		}
+		work.mkdirs();
+		if (report == null) {
+			report = new File(work, "report.json"); //$NON-NLS-1$
+		}
+		File repository = new File(work, "repository"); //$NON-NLS-1$
+
+		json.append("{\n  \"timestamp\": ").append(System.currentTimeMillis()); //$NON-NLS-1$
+		json.append(",\n  \"http\": ").append(http); //$NON-NLS-1$
+		json.append(",\n  \"auth\": ").append(auth != null); //$NON-NLS-1$
+		json.append(",\n  \"latency\": ").append(latency); //$NON-NLS-1$
+		long start = System.currentTimeMillis();
+		int units = generator.generate(repository);
+		json.append(",\n  \"units\": ").append(units); //$NON-NLS-1$
+		json.append(",\n  \"generate\": ").append(System.currentTimeMillis() - start); //$NON-NLS-1$
+		json.append(",\n  \"runs\": ["); //$NON-NLS-1$
+
+		LocalRepositoryServer server = null;
+		String repositoryURL = repository.toURI().toString();
+		if (http) {
+			server = new LocalRepositoryServer(repository, auth, latency);
+			int port = server.start();
+			repositoryURL = "http://" + (auth != null ? auth + '@' : "") + "127.0.0.1:" + port + '/'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		DirectorRunner runner = new DirectorRunner(eclipse);
+		runner.setApplication(application);
+		boolean ok = true;
+		try {
+			for (int r = 0; r < runs; r++) {
+				File runFolder = new File(work, "run" + r); //$NON-NLS-1$
+				json.append(r == 0 ? "\n    {" : ",\n    {"); //$NON-NLS-1$ //$NON-NLS-2$
+				json.append("\"run\": ").append(r).append(", \"phases\": ["); //$NON-NLS-1$ //$NON-NLS-2$
+				ok &= runPhase(runner, server, "install", repositoryURL, runFolder, false, true); //$NON-NLS-1$
+				ok &= runPhase(runner, server, "addSources", repositoryURL, runFolder, true, false); //$NON-NLS-1$
+				ok &= runPhase(runner, server, "sourcesUpToDate", repositoryURL, runFolder, true, false); //$NON-NLS-1$
+				json.append("]}"); //$NON-NLS-1$
+			}
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+		json.append("\n  ],\n  \"ok\": ").append(ok).append("\n}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		Writer w = new OutputStreamWriter(new FileOutputStream(report), "UTF-8"); //$NON-NLS-1$
+		try {
+			w.write(json.toString());
+		} finally {
+			w.close();
+		}
+		System.out.println("Report written in " + report); //$NON-NLS-1$
+		return ok;
+	}
+
+	private boolean runPhase(DirectorRunner runner, LocalRepositoryServer server, String phase,
+			String repositoryURL, File runFolder, boolean addSources, boolean first) {
+		File destination = new File(runFolder, "destination"); //$NON-NLS-1$
+		File configuration = new File(runFolder, "configuration-" + phase); //$NON-NLS-1$
+		List<String> args = new ArrayList<String>();
+		args.add("-consoleLog"); //$NON-NLS-1$
+		args.add("-repository"); //$NON-NLS-1$
+		args.add(repositoryURL);
+		args.add("-installIU"); //$NON-NLS-1$
+		args.add(SyntheticRepository.FEATURE_GROUP);
+		args.add("-destination"); //$NON-NLS-1$
+		args.add(destination.getAbsolutePath());
+		args.add("-bundlepool"); //$NON-NLS-1$
+		args.add(destination.getAbsolutePath());
+		args.add("-profile"); //$NON-NLS-1$
+		args.add("Bench"); //$NON-NLS-1$
+		if (addSources) {
+			args.add("-addSources"); //$NON-NLS-1$
+		}
+		long requests = server != null ? server.getRequests() : 0;
+		long bytes = server != null ? server.getBytes() : 0;
+		long challenges = server != null ? server.getChallenges() : 0;
+		System.out.println("Running " + phase + " in " + runFolder); //$NON-NLS-1$ //$NON-NLS-2$
+		DirectorRunner.Result result = runner.run(args.toArray(new String[args.size()]), configuration);
+		if (result.failure != null) {
+			result.failure.printStackTrace();
+		}
+
+		json.append(first ? "\n      {" : ",\n      {"); //$NON-NLS-1$ //$NON-NLS-2$
+		json.append("\"phase\": \"").append(phase).append('"'); //$NON-NLS-1$
+		json.append(", \"ok\": ").append(result.isOK()); //$NON-NLS-1$
+		json.append(", \"elapsedMs\": ").append(result.elapsed); //$NON-NLS-1$
+		json.append(", \"peakHeapBytes\": ").append(result.peakHeap); //$NON-NLS-1$
+		if (server != null) {
+			json.append(", \"httpRequests\": ").append(server.getRequests() - requests); //$NON-NLS-1$
+			json.append(", \"httpBytes\": ").append(server.getBytes() - bytes); //$NON-NLS-1$
+			json.append(", \"httpChallenges\": ").append(server.getChallenges() - challenges); //$NON-NLS-1$
+		}
+		json.append('}');
+		return result.isOK();
+	}
+
+}
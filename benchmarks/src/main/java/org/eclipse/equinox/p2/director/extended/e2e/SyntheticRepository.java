@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.e2e;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates a simple p2 repository on the local disk: an uncompressed content.xml,
+ * an artifacts.xml and one jar per bundle.
+ * <p>
+ * The bundles <code>bench.bundle0..n-1</code> are all required by the feature group
+ * {@link #FEATURE_GROUP} and require each other according to the shape:
+ * <ul>
+ * <li>chain: each bundle requires the next one.</li>
+ * <li>tree: each bundle requires its <code>degree</code> children.</li>
+ * <li>random: each bundle requires up to <code>degree</code> bundles picked among the following ones.</li>
+ * </ul>
+ * Each bundle has a source bundle <code>bench.bundleN.source</code> unless the sources are disabled.
+ * </p>
+ */
+public class SyntheticRepository {
+
+	public static final String FEATURE_GROUP = "bench.feature.feature.group"; //$NON-NLS-1$
+
+	private static final String VERSION = "1.0.0.v2011"; //$NON-NLS-1$
+	private static final String RANGE = "[1.0.0.v2011,1.0.0.v2011]"; //$NON-NLS-1$
+
+	private int bundles = 500;
+	private String shape = "tree"; //$NON-NLS-1$
+	private int degree = 3;
+	private int payload = 16 * 1024;
+	private boolean sources = true;
+
+	public void setBundles(int bundles) {
+		this.bundles = bundles;
+	}
+
+	public void setShape(String shape) {
+		if (!shape.equals("chain") && !shape.equals("tree") && !shape.equals("random")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			throw new IllegalArgumentException("Unknown dependency shape " + shape //$NON-NLS-1$
+					+ ": expecting chain, tree or random"); //$NON-NLS-1$
+		}
+		this.shape = shape;
+	}
+
+	public void setDegree(int degree) {
+		this.degree = degree;
+	}
+
+	/**
+	 * @param payload The size in bytes of the content added to each bundle jar.
+	 */
+	public void setPayload(int payload) {
+		this.payload = payload;
+	}
+
+	public void setSources(boolean sources) {
+		this.sources = sources;
+	}
+
+	/**
+	 * Writes the repository in the folder.
+	 * @return The number of IUs written.
+	 */
+	public int generate(File folder) throws IOException {
+		new File(folder, "plugins").mkdirs(); //$NON-NLS-1$
+		List<String> ids = new ArrayList<String>();
+		Writer content = new OutputStreamWriter(new FileOutputStream(new File(folder, "content.xml")), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+		int units = bundles + 1 + (sources ? bundles : 0);
+		try {
+			content.write("<?xml version='1.0' encoding='UTF-8'?>\n"); //$NON-NLS-1$
+			content.write("<?metadataRepository version='1.1.0'?>\n"); //$NON-NLS-1$
+			content.write("<repository name='bench' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository' version='1'>\n"); //$NON-NLS-1$
+			content.write("<properties size='1'><property name='p2.timestamp' value='" + System.currentTimeMillis() + "'/></properties>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			content.write("<units size='" + units + "'>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			writeFeatureGroup(content);
+			Random random = new Random(42);
+			for (int i = 0; i < bundles; i++) {
+				String id = "bench.bundle" + i; //$NON-NLS-1$
+				writeBundle(content, id, getRequired(i, random), "bundle"); //$NON-NLS-1$
+				writeJar(folder, id);
+				ids.add(id);
+				if (sources) {
+					writeBundle(content, id + ".source", new int[0], "source"); //$NON-NLS-1$ //$NON-NLS-2$
+					writeJar(folder, id + ".source"); //$NON-NLS-1$
+					ids.add(id + ".source"); //$NON-NLS-1$
+				}
+			}
+			content.write("</units>\n</repository>\n"); //$NON-NLS-1$
+		} finally {
+			content.close();
+		}
+		writeArtifacts(folder, ids);
+		return units;
+	}
+
+	private int[] getRequired(int i, Random random) {
+		if (shape.equals("chain")) { //$NON-NLS-1$
+			return i + 1 < bundles ? new int[] {i + 1} : new int[0];
+		}
+		List<Integer> required = new ArrayList<Integer>(degree);
+		for (int k = 0; k < degree; k++) {
+			int j;
+			if (shape.equals("tree")) { //$NON-NLS-1$
+				j = i * degree + k + 1;
+			} else {
+				int remaining = bundles - i - 1;
+				j = remaining > 0 ? i + 1 + random.nextInt(remaining) : bundles;
+			}
+			if (j < bundles && !required.contains(j)) {
+				required.add(j);
+			}
+		}
+		int[] res = new int[required.size()];
+		for (int k = 0; k < res.length; k++) {
+			res[k] = required.get(k);
+		}
+		return res;
+	}
+
+	private void writeFeatureGroup(Writer w) throws IOException {
+		w.write("<unit id='" + FEATURE_GROUP + "' version='" + VERSION + "'>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		w.write("<properties size='1'><property name='org.eclipse.equinox.p2.type.group' value='true'/></properties>\n"); //$NON-NLS-1$
+		w.write("<provides size='1'><provided namespace='org.eclipse.equinox.p2.iu' name='" + FEATURE_GROUP + "' version='" + VERSION + "'/></provides>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		w.write("<requires size='" + bundles + "'>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int i = 0; i < bundles; i++) {
+			w.write("<required namespace='org.eclipse.equinox.p2.iu' name='bench.bundle" + i + "' range='" + RANGE + "'/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		w.write("</requires>\n"); //$NON-NLS-1$
+		w.write("<touchpoint id='null' version='0.0.0'/>\n</unit>\n"); //$NON-NLS-1$
+	}
+
+	private void writeBundle(Writer w, String id, int[] required, String type) throws IOException {
+		w.write("<unit id='" + id + "' version='" + VERSION + "'>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		w.write("<provides size='3'>\n"); //$NON-NLS-1$
+		w.write("<provided namespace='org.eclipse.equinox.p2.iu' name='" + id + "' version='" + VERSION + "'/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		w.write("<provided namespace='osgi.bundle' name='" + id + "' version='" + VERSION + "'/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		w.write("<provided namespace='org.eclipse.equinox.p2.eclipse.type' name='" + type + "' version='1.0.0'/>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		w.write("</provides>\n"); //$NON-NLS-1$
+		if (required.length != 0) {
+			w.write("<requires size='" + required.length + "'>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			for (int j : required) {
+				w.write("<required namespace='osgi.bundle' name='bench.bundle" + j + "' range='" + RANGE + "'/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+			w.write("</requires>\n"); //$NON-NLS-1$
+		}
+		w.write("<artifacts size='1'><artifact classifier='osgi.bundle' id='" + id + "' version='" + VERSION + "'/></artifacts>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		w.write("<touchpoint id='org.eclipse.equinox.p2.osgi' version='1.0.0'/>\n</unit>\n"); //$NON-NLS-1$
+	}
+
+	private void writeJar(File folder, String id) throws IOException {
+		Manifest manifest = new Manifest();
+		Attributes main = manifest.getMainAttributes();
+		main.put(Attributes.Name.MANIFEST_VERSION, "1.0"); //$NON-NLS-1$
+		main.putValue("Bundle-ManifestVersion", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+		main.putValue("Bundle-SymbolicName", id); //$NON-NLS-1$
+		main.putValue("Bundle-Version", VERSION); //$NON-NLS-1$
+		File jar = new File(folder, "plugins/" + id + '_' + VERSION + ".jar"); //$NON-NLS-1$ //$NON-NLS-2$
+		JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)), manifest);
+		try {
+			out.putNextEntry(new JarEntry("payload.bin")); //$NON-NLS-1$
+			//not compressible: the size on the wire is the payload size.
+			byte[] bytes = new byte[payload];
+			new Random(id.hashCode()).nextBytes(bytes);
+			out.write(bytes);
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeArtifacts(File folder, List<String> ids) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(new File(folder, "artifacts.xml")), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			w.write("<?xml version='1.0' encoding='UTF-8'?>\n"); //$NON-NLS-1$
+			w.write("<?artifactRepository version='1.1.0'?>\n"); //$NON-NLS-1$
+			w.write("<repository name='bench' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>\n"); //$NON-NLS-1$
+			w.write("<properties size='1'><property name='p2.timestamp' value='" + System.currentTimeMillis() + "'/></properties>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			w.write("<mappings size='1'><rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/></mappings>\n"); //$NON-NLS-1$
+			w.write("<artifacts size='" + ids.size() + "'>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			for (String id : ids) {
+				long size = new File(folder, "plugins/" + id + '_' + VERSION + ".jar").length(); //$NON-NLS-1$ //$NON-NLS-2$
+				w.write("<artifact classifier='osgi.bundle' id='" + id + "' version='" + VERSION + "'>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				w.write("<properties size='2'><property name='artifact.size' value='" + size + "'/><property name='download.size' value='" + size + "'/></properties>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				w.write("</artifact>\n"); //$NON-NLS-1$
+			}
+			w.write("</artifacts>\n</repository>\n"); //$NON-NLS-1$
+		} finally {
+			w.close();
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.query.CollectionResult;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of the source IU of -addSources over an in-memory profile.
+ * Two bundles out of three have a source bundle available.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourceIUBenchmark {
+
+	/** number of bundles installed in the profile */
+	@Param({"1000", "20000"})
+	public int bundles;
+
+	private IQueryable<IInstallableUnit> profile;
+	private Set<String> availableSources;
+	private IInstallableUnit currentSourceIU;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(bundles + bundles / 10);
+		availableSources = new HashSet<String>();
+		for (int i = 0; i < bundles; i++) {
+			String id = "org.example.bundle" + i; //$NON-NLS-1$
+			Version version = Version.createOSGi(1, i % 5, 0, "v2011"); //$NON-NLS-1$
+			ius.add(createIU(id, version, true));
+			if (i % 3 != 0) {
+				availableSources.add(id + ".source/" + version); //$NON-NLS-1$
+			}
+			if (i % 10 == 0) {
+				//features and other IUs that are not bundles.
+				ius.add(createIU("org.example.feature" + i + ".feature.group", version, false)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		profile = new CollectionResult<IInstallableUnit>(ius);
+		currentSourceIU = AddSourcesRequirementsHelper.createNextSourceIU(profile, null, availableSources);
+	}
+
+	private static IInstallableUnit createIU(String id, Version version, boolean bundle) {
+		InstallableUnitDescription description = new MetadataFactory.InstallableUnitDescription();
+		description.setId(id);
+		description.setVersion(version);
+		IProvidedCapability self = MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, version);
+		if (bundle) {
+			IProvidedCapability type = MetadataFactory.createProvidedCapability("org.eclipse.equinox.p2.eclipse.type", "bundle", Version.createOSGi(1, 0, 0)); //$NON-NLS-1$ //$NON-NLS-2$
+			description.setCapabilities(new IProvidedCapability[] {self, type});
+		} else {
+			description.setCapabilities(new IProvidedCapability[] {self});
+		}
+		return MetadataFactory.createInstallableUnit(description);
+	}
+
+	/**
+	 * The first -addSources on the profile: requires all the available sources.
+	 */
+	@Benchmark
+	public IInstallableUnit createSourceIU() {
+		return AddSourcesRequirementsHelper.createNextSourceIU(profile, null, availableSources);
+	}
+
+	/**
+	 * The source IU is up to date: its requirements are compared and nothing is created.
+	 */
+	@Benchmark
+	public IInstallableUnit createSourceIUUpToDate() {
+		return AddSourcesRequirementsHelper.createNextSourceIU(profile, currentSourceIU, availableSources);
+	}
+
+	/**
+	 * No context to look the sources up: requires a source for every bundle.
+	 */
+	@Benchmark
+	public IInstallableUnit createSourceIUWithoutContext() {
+		return AddSourcesRequirementsHelper.createNextSourceIU(profile, null, null);
+	}
+
+}
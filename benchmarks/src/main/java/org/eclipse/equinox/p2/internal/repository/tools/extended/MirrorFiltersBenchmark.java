@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.internal.repository.tools.extended;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The -exclude filters of the mirror over in-memory artifact keys:
+ * the excluding query performed on the artifact descriptors of a repository
+ * and the selection of the keys to mirror done by internalSetMirroring.
+ * Both are measured through {@link ArtifactKeyFilters}: the mirror application itself
+ * needs the p2 repository tools which are not published on maven central.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MirrorFiltersBenchmark {
+
+	@Param({"10000", "100000"})
+	public int keys;
+
+	private List<IArtifactKey> artifactKeys;
+	private List<IArtifactDescriptor> descriptors;
+	private ArtifactIdMatcher exclusions;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		artifactKeys = SyntheticArtifacts.createKeys(keys);
+		descriptors = SyntheticArtifacts.createDescriptors(artifactKeys);
+		exclusions = ArtifactIdMatcher.compile(SyntheticArtifacts.EXCLUSIONS);
+	}
+
+	/**
+	 * Compiles the exclusions and performs the query on all the descriptors.
+	 */
+	@Benchmark
+	public IQueryResult<IArtifactDescriptor> createExcludingQuery() {
+		return ArtifactKeyFilters.createExcludingQuery(SyntheticArtifacts.EXCLUSIONS)
+				.perform(descriptors.iterator());
+	}
+
+	/**
+	 * Removes the excluded keys as internalSetMirroring does before setting them on the mirroring.
+	 */
+	@Benchmark
+	public List<IArtifactKey> removeExcludedKeys() {
+		return ArtifactKeyFilters.removeExcludedKeys(new ArrayList<IArtifactKey>(artifactKeys), exclusions);
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.internal.repository.tools.extended;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+
+/**
+ * In-memory artifact keys shaped like the ones of a release train:
+ * ids grouped by project, two versions per id, one feature every 20 bundles
+ * and a source bundle for every other bundle.
+ */
+class SyntheticArtifacts {
+
+	static final String[] PROJECTS = {"core", "jdt", "pde", "equinox", "ecf", "emf", "jetty", "team", "ui", "help"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
+
+	/** A literal, prefixes, a suffix and an infix: the usual shapes of -exclude. */
+	static final String[] EXCLUSIONS = {"org.eclipse.jdt.*", "org.eclipse.team.*", "*.source", "*.tests", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			"org.eclipse.*.examples.*", "org.eclipse.ui.bundle42"}; //$NON-NLS-1$ //$NON-NLS-2$
+
+	/**
+	 * @param count The number of keys
+	 * @return The keys in a deterministic order.
+	 */
+	static List<IArtifactKey> createKeys(int count) {
+		List<IArtifactKey> keys = new ArrayList<IArtifactKey>(count);
+		for (int i = 0; keys.size() < count; i++) {
+			String project = PROJECTS[i % PROJECTS.length];
+			String id = "org.eclipse." + project + (i % 20 == 0 ? ".feature" : ".bundle") + (i / PROJECTS.length); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			if (i % 7 == 0) {
+				id += ".tests"; //$NON-NLS-1$
+			} else if (i % 11 == 0) {
+				id = "org.eclipse." + project + ".examples.bundle" + i; //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			String classifier = i % 20 == 0 ? "org.eclipse.update.feature" : "osgi.bundle"; //$NON-NLS-1$ //$NON-NLS-2$
+			for (int v = 0; v < 2 && keys.size() < count; v++) {
+				Version version = Version.createOSGi(1, v, 0, "v2011" + i); //$NON-NLS-1$
+				keys.add(new ArtifactKey(classifier, id, version));
+				if (i % 2 == 0 && keys.size() < count) {
+					keys.add(new ArtifactKey(classifier, id + ".source", version)); //$NON-NLS-1$
+				}
+			}
+		}
+		return keys;
+	}
+
+	static List<IArtifactDescriptor> createDescriptors(List<IArtifactKey> keys) {
+		List<IArtifactDescriptor> descriptors = new ArrayList<IArtifactDescriptor>(keys.size());
+		for (IArtifactKey key : keys) {
+			descriptors.add(new ArtifactDescriptor(key));
+		}
+		return descriptors;
+	}
+
+}
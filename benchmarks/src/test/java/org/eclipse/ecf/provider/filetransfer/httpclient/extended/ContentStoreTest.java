@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Opens a store, tees downloads through it and checks what is left behind once it is closed.
+ */
+public class ContentStoreTest {
+
+	private static final String MIRRORS = "eclipse.p2.mirrors"; //$NON-NLS-1$
+
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = File.createTempFile("content-store", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		folder.delete();
+		System.clearProperty(MIRRORS);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		ContentStore.close();
+		System.clearProperty(MIRRORS);
+		delete(folder);
+	}
+
+	@Test
+	public void closeRestoresTheMirrorsSetting() throws IOException {
+		ContentStore.configure(folder, false);
+		assertEquals("false", System.getProperty(MIRRORS)); //$NON-NLS-1$
+		ContentStore.close();
+		assertNull(System.getProperty(MIRRORS));
+
+		System.setProperty(MIRRORS, "true"); //$NON-NLS-1$
+		ContentStore.configure(folder, false);
+		ContentStore.configure(folder, true);
+		ContentStore.close();
+		assertEquals("true", System.getProperty(MIRRORS)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void closeDeletesTheDownloadsNotReadToTheEnd() throws IOException {
+		ContentStore.configure(folder, false);
+		ContentStore store = ContentStore.getDefault();
+		InputStream read = store.tee("http://host/read.jar", new ByteArrayInputStream(new byte[100])); //$NON-NLS-1$
+		while (read.read() != -1) {
+			//read it all.
+		}
+		read.close();
+		InputStream unclosed = store.tee("http://host/unclosed.jar", new ByteArrayInputStream(new byte[100])); //$NON-NLS-1$
+		unclosed.read();
+		assertEquals(1, countTemporaryFiles());
+
+		ContentStore.close();
+		assertEquals(0, countTemporaryFiles());
+		ContentStore.configure(folder, true);
+		assertNotNull(ContentStore.getDefault().getFile("http://host/read.jar")); //$NON-NLS-1$
+		assertNull(ContentStore.getDefault().getFile("http://host/unclosed.jar")); //$NON-NLS-1$
+	}
+
+	private int countTemporaryFiles() {
+		String[] names = new File(folder, "objects").list(); //$NON-NLS-1$
+		int count = 0;
+		for (String name : names) {
+			if (name.endsWith(".tmp")) { //$NON-NLS-1$
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
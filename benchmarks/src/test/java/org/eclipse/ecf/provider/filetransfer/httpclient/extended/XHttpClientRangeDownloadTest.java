@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.eclipse.equinox.p2.director.extended.e2e.LocalRepositoryServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Counts the bytes sent by a local server for the downloads wrapped by {@link XHttpClientRangeDownload}:
+ * the original response must be aborted, never drained, once it is not read anymore.
+ */
+public class XHttpClientRangeDownloadTest {
+
+	private static final int LENGTH = 16 * 1024 * 1024;
+
+	static {
+		//read once when the class under test is initialized.
+		System.setProperty(XHttpClientRangeDownload.PROP_PARALLEL_RANGES, "4"); //$NON-NLS-1$
+		System.setProperty(XHttpClientRangeDownload.PROP_PARALLEL_THRESHOLD, "1048576"); //$NON-NLS-1$
+	}
+
+	private File root;
+	private byte[] content;
+	private LocalRepositoryServer server;
+	private String url;
+	private MultiThreadedHttpConnectionManager connections;
+	private HttpClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		root = File.createTempFile("xhttp-range", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		root.delete();
+		root.mkdirs();
+		content = new byte[LENGTH];
+		new Random(42).nextBytes(content);
+		OutputStream out = new FileOutputStream(new File(root, "file.bin")); //$NON-NLS-1$
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		server = new LocalRepositoryServer(root, null, 0);
+		url = "http://127.0.0.1:" + server.start() + "/file.bin"; //$NON-NLS-1$ //$NON-NLS-2$
+		connections = new MultiThreadedHttpConnectionManager();
+		client = new HttpClient(connections);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		connections.shutdown();
+		new File(root, "file.bin").delete(); //$NON-NLS-1$
+		root.delete();
+	}
+
+	@Test
+	public void parallelDownloadSendsTheFileOnce() throws Exception {
+		GetMethod get = new GetMethod(url);
+		client.executeMethod(get);
+		InputStream in = XHttpClientRangeDownload.wrap(client, url, get, get.getResponseBodyAsStream(), LENGTH);
+		assertTrue(in instanceof XHttpClientRangeDownload.ParallelRangesInputStream);
+		byte[] received;
+		try {
+			received = readAll(in);
+		} finally {
+			in.close();
+			get.releaseConnection();
+		}
+		assertArrayEquals(content, received);
+		//what the socket buffers held when the original response was aborted is sent as well.
+		assertTrue("The server sent " + server.getBytes() + " bytes for a file of " + LENGTH, //$NON-NLS-1$ //$NON-NLS-2$
+				server.getBytes() < LENGTH * 3L / 2);
+	}
+
+	@Test
+	public void closeBeforeTheEndDoesNotDrainTheResponse() throws Exception {
+		GetMethod get = new GetMethod(url);
+		client.executeMethod(get);
+		InputStream in = new XHttpClientRangeDownload.ResumingInputStream(client, url, get,
+				get.getResponseBodyAsStream(), 0, LENGTH, "validator"); //$NON-NLS-1$
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int n = in.read(buf, 0, buf.length);
+			assertTrue(n > 0);
+		} finally {
+			in.close();
+			get.releaseConnection();
+		}
+		assertTrue("The server sent " + server.getBytes() + " bytes after an early close", //$NON-NLS-1$ //$NON-NLS-2$
+				server.getBytes() < LENGTH / 2);
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(LENGTH);
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf, 0, buf.length)) != -1) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.equinox.p2.director.extended.e2e.LocalRepositoryServer;
+import org.eclipse.equinox.p2.director.extended.internal.MetadataRepositoryCache.Freshness;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Revalidates the index files of a repository served by a local server
+ * with the conditional requests of {@link MetadataRepositoryCache}.
+ */
+public class MetadataRepositoryCacheTest {
+
+	private File root;
+	private LocalRepositoryServer server;
+	private URI location;
+
+	@Before
+	public void setUp() throws IOException {
+		root = File.createTempFile("metadata-cache", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		root.delete();
+		root.mkdirs();
+		write(new File(root, "content.jar"), 1000); //$NON-NLS-1$
+		server = new LocalRepositoryServer(root, null, 0);
+		location = URI.create("http://127.0.0.1:" + server.start() + "/"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		new File(root, "content.jar").delete(); //$NON-NLS-1$
+		root.delete();
+	}
+
+	@Test
+	public void unchangedRepositoryIsAnsweredNotModified() {
+		Properties cached = toStamp(MetadataRepositoryCache.getValidators(location, Collections.<URI> emptyList()));
+		assertEquals(Freshness.UNCHANGED, MetadataRepositoryCache.revalidate(cached));
+	}
+
+	@Test
+	public void changedIndexFileIsDetected() throws IOException {
+		Properties cached = toStamp(MetadataRepositoryCache.getValidators(location, Collections.<URI> emptyList()));
+		File content = new File(root, "content.jar"); //$NON-NLS-1$
+		write(content, 2000);
+		content.setLastModified(content.lastModified() + 10000);
+		assertEquals(Freshness.CHANGED, MetadataRepositoryCache.revalidate(cached));
+	}
+
+	@Test
+	public void newIndexFileIsDetected() throws IOException {
+		Properties cached = toStamp(MetadataRepositoryCache.getValidators(location, Collections.<URI> emptyList()));
+		File composite = new File(root, "compositeContent.xml"); //$NON-NLS-1$
+		write(composite, 10);
+		try {
+			assertEquals(Freshness.CHANGED, MetadataRepositoryCache.revalidate(cached));
+		} finally {
+			composite.delete();
+		}
+	}
+
+	@Test
+	public void stoppedServerIsUnreachable() {
+		Properties cached = toStamp(MetadataRepositoryCache.getValidators(location, Collections.<URI> emptyList()));
+		server.stop();
+		assertEquals(Freshness.UNREACHABLE, MetadataRepositoryCache.revalidate(cached));
+	}
+
+	@Test
+	public void repositoryWithoutIndexFileIsNotCached() {
+		new File(root, "content.jar").delete(); //$NON-NLS-1$
+		assertNull(MetadataRepositoryCache.getValidators(location, Collections.<URI> emptyList()));
+	}
+
+	@Test
+	public void stampWithoutValidatorIsChanged() {
+		assertEquals(Freshness.CHANGED, MetadataRepositoryCache.revalidate(new Properties()));
+	}
+
+	private static Properties toStamp(Map<String, String> validators) {
+		assertNotNull(validators);
+		assertTrue(validators.toString(), validators.containsValue("absent")); //$NON-NLS-1$
+		Properties stamp = new Properties();
+		for (Map.Entry<String, String> validator : validators.entrySet())
+			stamp.setProperty("validator." + validator.getKey(), validator.getValue()); //$NON-NLS-1$
+		return stamp;
+	}
+
+	private static void write(File file, int length) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[length]);
+		} finally {
+			out.close();
+		}
+	}
+
+}
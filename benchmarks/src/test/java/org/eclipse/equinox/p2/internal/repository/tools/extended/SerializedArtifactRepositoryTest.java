@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.internal.repository.tools.extended;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.internal.provisional.p2.repository.IStateful;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Mirrors batches of artifacts with several threads into a destination that is not thread safe,
+ * the way the mirroring threads of {@link MirrorApplicationForked} do: each artifact is checked,
+ * then written into the stream of the destination, which adds the descriptor and saves
+ * the artifacts.xml when it is closed.
+ */
+public class SerializedArtifactRepositoryTest {
+
+	private static final int ARTIFACTS = 2000;
+	private static final int THREADS = 8;
+
+	private File artifactsXml;
+
+	@Before
+	public void setUp() throws IOException {
+		artifactsXml = File.createTempFile("artifacts", ".xml"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@After
+	public void tearDown() {
+		artifactsXml.delete();
+	}
+
+	@Test
+	public void artifactsXmlListsEveryArtifactOnce() throws Exception {
+		IArtifactRepository destination = SerializedArtifactRepository.wrap(createUnsafeRepository(artifactsXml), new Object());
+		List<IArtifactKey> keys = new ArrayList<IArtifactKey>(ARTIFACTS);
+		for (int i = 0; i < ARTIFACTS; i++)
+			keys.add(new ArtifactKey("osgi.bundle", "bundle" + i, Version.createOSGi(1, 0, 0))); //$NON-NLS-1$ //$NON-NLS-2$
+		mirrorConcurrently(keys, destination);
+
+		Map<String, Integer> listed = new HashMap<String, Integer>();
+		BufferedReader reader = new BufferedReader(new FileReader(artifactsXml));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Integer count = listed.get(line);
+				listed.put(line, count == null ? 1 : count + 1);
+			}
+		} finally {
+			reader.close();
+		}
+		assertEquals(ARTIFACTS, listed.size());
+		for (IArtifactKey key : keys)
+			assertEquals(key.getId(), Integer.valueOf(1), listed.get(key.getId()));
+	}
+
+	@Test
+	public void theStatusOfTheStreamIsForwarded() throws Exception {
+		IArtifactRepository destination = SerializedArtifactRepository.wrap(createUnsafeRepository(artifactsXml), new Object());
+		OutputStream out = destination.getOutputStream(new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "bundle", Version.createOSGi(1, 0, 0)))); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue(out instanceof IStateful);
+		assertTrue(((IStateful) out).getStatus().isOK());
+	}
+
+	private static void mirrorConcurrently(List<IArtifactKey> keys, final IArtifactRepository destination) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> batches = new ArrayList<Future<Void>>();
+			int batchSize = keys.size() / (THREADS * 4);
+			for (int start = 0; start < keys.size(); start += batchSize) {
+				final List<IArtifactKey> batch = keys.subList(start, Math.min(keys.size(), start + batchSize));
+				batches.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						for (IArtifactKey key : batch) {
+							IArtifactDescriptor descriptor = new ArtifactDescriptor(key);
+							if (destination.contains(descriptor))
+								continue;
+							OutputStream out = destination.getOutputStream(descriptor);
+							try {
+								out.write(new byte[512]);
+							} finally {
+								out.close();
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> batch : batches)
+				batch.get();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return A repository that copies its list of descriptors to add one and rewrites
+	 * the whole artifacts.xml each time, without any synchronization.
+	 */
+	private static IArtifactRepository createUnsafeRepository(final File artifactsXml) {
+		final List<List<IArtifactDescriptor>> state = new ArrayList<List<IArtifactDescriptor>>();
+		state.add(new ArrayList<IArtifactDescriptor>());
+		return (IArtifactRepository) Proxy.newProxyInstance(SerializedArtifactRepositoryTest.class.getClassLoader(),
+				new Class<?>[] {IArtifactRepository.class}, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("contains")) //$NON-NLS-1$
+							return Boolean.valueOf(state.get(0).contains(args[0]));
+						if (method.getName().equals("getOutputStream")) { //$NON-NLS-1$
+							final IArtifactDescriptor descriptor = (IArtifactDescriptor) args[0];
+							return new ByteArrayOutputStream() {
+								@Override
+								public void close() throws IOException {
+									List<IArtifactDescriptor> descriptors = new ArrayList<IArtifactDescriptor>(state.get(0));
+									if (!descriptors.contains(descriptor))
+										descriptors.add(descriptor);
+									Thread.yield();
+									state.set(0, descriptors);
+									save(descriptors, artifactsXml);
+								}
+							};
+						}
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	private static void save(List<IArtifactDescriptor> descriptors, File artifactsXml) throws IOException {
+		FileWriter writer = new FileWriter(artifactsXml);
+		try {
+			for (int i = 0; i < descriptors.size(); i++) {
+				writer.write(descriptors.get(i).getArtifactKey().getId());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+}
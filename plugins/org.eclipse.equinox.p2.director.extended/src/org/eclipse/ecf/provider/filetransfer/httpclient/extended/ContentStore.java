@@ -0,0 +1,350 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local content-addressed store of the remote files downloaded by the director.
+ * <p>
+ * Each file is stored once under its SHA-1: <code>objects/ab/abcdef...</code>.
+ * The append-only <code>index.txt</code> maps the uri of each downloaded file to the SHA-1 of its content;
+ * when a uri is downloaded again the last line wins.
+ * </p>
+ * <p>
+ * When online the remote properties files and the files retrieved through the XHttpClient transfers
+ * are copied into the store as they are read.
+ * When offline they are only served from the store and nothing is requested on the network.
+ * </p>
+ * <p>
+ * The store is kept next to the transport that fills it; the director configures it
+ * and closes it when the run ends.
+ * </p>
+ */
+public class ContentStore {
+
+	private static final String INDEX_FILE = "index.txt"; //$NON-NLS-1$
+	private static final String OBJECTS_FOLDER = "objects"; //$NON-NLS-1$
+	private static final String PROP_MIRRORS = "eclipse.p2.mirrors"; //$NON-NLS-1$
+
+	private static volatile ContentStore DEFAULT;
+
+	/**
+	 * Configures the store used by the director for this run.
+	 * The p2 mirrors are disabled online as well: the artifacts must be indexed
+	 * under the urls of their repository for an offline run to find them.
+	 * They are enabled again as they were when the store is closed.
+	 * @param folder The folder of the store
+	 * @param offline true to resolve the remote files from the store only.
+	 */
+	public static synchronized void configure(File folder, boolean offline) throws IOException {
+		ContentStore previous = DEFAULT;
+		DEFAULT = new ContentStore(folder, offline,
+				previous != null ? previous.previousMirrors : System.getProperty(PROP_MIRRORS));
+		if (previous != null) {
+			previous.closeStore();
+		}
+		System.setProperty(PROP_MIRRORS, "false"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Closes the store of this run if one was configured: closes its index,
+	 * deletes the copies of the downloads that were not read to the end
+	 * and restores the p2 mirrors setting.
+	 */
+	public static synchronized void close() throws IOException {
+		ContentStore store = DEFAULT;
+		if (store == null) {
+			return;
+		}
+		DEFAULT = null;
+		if (store.previousMirrors == null) {
+			System.clearProperty(PROP_MIRRORS);
+		} else {
+			System.setProperty(PROP_MIRRORS, store.previousMirrors);
+		}
+		store.closeStore();
+	}
+
+	/**
+	 * @return The store configured for this run or null.
+	 */
+	public static ContentStore getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @return true when the uri is a remote one that goes through the store.
+	 */
+	public static boolean isStored(String uri) {
+		return uri.startsWith("http:") || uri.startsWith("https:") //$NON-NLS-1$ //$NON-NLS-2$
+				|| uri.startsWith("xhttp:") || uri.startsWith("xhttps:"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private final File folder;
+	private final boolean offline;
+	/** uri -> sha1 */
+	private final Map<String, String> index = new ConcurrentHashMap<String, String>();
+	private Writer indexWriter;
+	/** the temporary files of the downloads in progress */
+	private final Set<File> pending = Collections.synchronizedSet(new HashSet<File>());
+	/** the value of eclipse.p2.mirrors before the store was configured */
+	private final String previousMirrors;
+
+	private ContentStore(File folder, boolean offline, String previousMirrors) throws IOException {
+		this.folder = folder;
+		this.offline = offline;
+		this.previousMirrors = previousMirrors;
+		new File(folder, OBJECTS_FOLDER).mkdirs();
+		File indexFile = new File(folder, INDEX_FILE);
+		if (indexFile.exists()) {
+			readIndex(indexFile);
+		}
+	}
+
+	private void readIndex(File indexFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8")); //$NON-NLS-1$
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.lastIndexOf('\t');
+				if (tab > 0 && tab + 1 < line.length()) {
+					index.put(line.substring(0, tab), line.substring(tab + 1));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * @param uri
+	 * @return The stored content of the uri or null if it was never downloaded.
+	 */
+	public File getFile(String uri) {
+		String sha1 = index.get(toKey(uri));
+		if (sha1 == null) {
+			return null;
+		}
+		File f = getObjectFile(sha1);
+		return f.exists() ? f : null;
+	}
+
+	/**
+	 * @param uri The uri of the content
+	 * @param in The content being downloaded
+	 * @return A stream that reads the content and stores it once it was read entirely.
+	 */
+	public InputStream tee(String uri, InputStream in) {
+		try {
+			return new TeeInputStream(toKey(uri), in);
+		} catch (IOException e) {
+			//not stored: nevermind.
+			return in;
+		}
+	}
+
+	private File getObjectFile(String sha1) {
+		return new File(new File(new File(folder, OBJECTS_FOLDER), sha1.substring(0, 2)), sha1);
+	}
+
+	private void closeStore() throws IOException {
+		File[] abandoned;
+		synchronized (pending) {
+			abandoned = pending.toArray(new File[pending.size()]);
+			pending.clear();
+		}
+		for (File tmp : abandoned) {
+			tmp.delete();
+		}
+		synchronized (this) {
+			if (indexWriter != null) {
+				indexWriter.close();
+				indexWriter = null;
+			}
+		}
+	}
+
+	private void store(String key, File tmp, String sha1) throws IOException {
+		File object = getObjectFile(sha1);
+		if (object.exists()) {
+			tmp.delete();
+		} else {
+			object.getParentFile().mkdirs();
+			if (!tmp.renameTo(object) && !object.exists()) {
+				tmp.delete();
+				throw new IOException("Unable to store " + key + " in " + object); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			tmp.delete();
+		}
+		if (sha1.equals(index.put(key, sha1))) {
+			return;
+		}
+		synchronized (this) {
+			if (indexWriter == null) {
+				indexWriter = new OutputStreamWriter(new FileOutputStream(new File(folder, INDEX_FILE), true), "UTF-8"); //$NON-NLS-1$
+			}
+			indexWriter.write(key + '\t' + sha1 + '\n');
+			indexWriter.flush();
+		}
+	}
+
+	/**
+	 * @return The uri without the user info and with the xhttp(s) scheme replaced by http(s).
+	 */
+	static String toKey(String uri) {
+		if (uri.startsWith("xhttp")) { //$NON-NLS-1$
+			uri = uri.substring(1);
+		}
+		int authority = uri.indexOf("://"); //$NON-NLS-1$
+		if (authority != -1) {
+			int path = uri.indexOf('/', authority + 3);
+			int at = uri.lastIndexOf('@', path == -1 ? uri.length() - 1 : path);
+			if (at > authority) {
+				uri = uri.substring(0, authority + 3) + uri.substring(at + 1);
+			}
+		}
+		return uri;
+	}
+
+	private static String toHex(byte[] digest) {
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Copies the content into a temporary file of the store while it is read;
+	 * the copy is added to the store when the end of the content was reached.
+	 */
+	private class TeeInputStream extends FilterInputStream {
+
+		private final String key;
+		private final File tmp;
+		private final MessageDigest sha1;
+		private OutputStream out;
+		private boolean complete;
+
+		TeeInputStream(String key, InputStream in) throws IOException {
+			super(in);
+			this.key = key;
+			try {
+				this.sha1 = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+			} catch (NoSuchAlgorithmException e) {
+				IOException ioe = new IOException("SHA-1 is not supported"); //$NON-NLS-1$
+				ioe.initCause(e);
+				throw ioe;
+			}
+			this.tmp = File.createTempFile("download", ".tmp", new File(folder, OBJECTS_FOLDER)); //$NON-NLS-1$ //$NON-NLS-2$
+			pending.add(tmp);
+			this.out = new FileOutputStream(tmp);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				complete = true;
+			} else if (out != null) {
+				out.write(b);
+				sha1.update((byte) b);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n == -1) {
+				complete = true;
+			} else if (out != null) {
+				out.write(b, off, n);
+				sha1.update(b, off, n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			//the copy would be incomplete.
+			abandon();
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void abandon() {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					//nevermind
+				}
+				out = null;
+				tmp.delete();
+				pending.remove(tmp);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (out != null) {
+					if (!complete) {
+						abandon();
+					} else {
+						out.close();
+						out = null;
+						try {
+							store(key, tmp, toHex(sha1.digest()));
+						} catch (IOException e) {
+							//not stored: nevermind.
+							tmp.delete();
+						} finally {
+							pending.remove(tmp);
+						}
+					}
+				}
+			}
+		}
+
+	}
+
+}
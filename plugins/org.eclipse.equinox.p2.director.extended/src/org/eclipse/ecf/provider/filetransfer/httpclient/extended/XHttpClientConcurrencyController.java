@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adapts the number of concurrent downloads from each host to what the host can serve.
+ * <p>
+ * Each download takes a permit of its host before sending its request and gives it back
+ * when its body is read or when it fails. The number of permits of a host follows
+ * an additive-increase / multiplicative-decrease rule:
+ * <ul>
+ * <li>the downloads are measured by windows of at least as many completed downloads as there are permits
+ * and at least 1 MB; at the end of a window the throughput of the host, the bytes received over the time
+ * during which at least one download was in flight, is compared to the one of the previous window,</li>
+ * <li>while it still grows by 5% or more, one permit is added,</li>
+ * <li>when it drops by more than 20%, a quarter of the permits are removed,</li>
+ * <li>when a download fails because of the network, a timeout or a 429 or 5xx answer, half of the permits are removed.</li>
+ * </ul>
+ * A fast host thus converges towards more parallel downloads while a slow or overloaded one
+ * is left with fewer. The callers still decide how many downloads they start:
+ * the permits only hold back the extra ones.
+ * </p>
+ * <p>
+ * Configured with the system properties:
+ * <ul>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.adaptiveConcurrency</code>
+ * true to enable it (default false)</li>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.adaptiveMaxConcurrency</code>
+ * maximum number of permits of a host (default the maxConnectionsPerHost of the shared pool)</li>
+ * </ul>
+ * </p>
+ */
+public class XHttpClientConcurrencyController {
+
+	private static final String PROP_PREFIX = "org.eclipse.ecf.provider.filetransfer.httpclient.extended."; //$NON-NLS-1$
+	public static final String PROP_ADAPTIVE_CONCURRENCY = PROP_PREFIX + "adaptiveConcurrency"; //$NON-NLS-1$
+	public static final String PROP_ADAPTIVE_MAX_CONCURRENCY = PROP_PREFIX + "adaptiveMaxConcurrency"; //$NON-NLS-1$
+
+	private static final int INITIAL_LIMIT = 2;
+	private static final double INCREASE_THRESHOLD = 1.05;
+	private static final double DECREASE_THRESHOLD = 0.8;
+	/** Below this many bytes a window is mostly the latency of the requests. */
+	private static final long MIN_WINDOW_BYTES = 1024 * 1024;
+
+	private static XHttpClientConcurrencyController INSTANCE;
+
+	/**
+	 * @return The controller shared by the transfers or null when it is not enabled.
+	 */
+	public static synchronized XHttpClientConcurrencyController getDefault() {
+		if (INSTANCE == null && Boolean.getBoolean(PROP_ADAPTIVE_CONCURRENCY)) {
+			int max = XHttpClientConnectionPool.getDefault().getParams().getDefaultMaxConnectionsPerHost();
+			String value = System.getProperty(PROP_ADAPTIVE_MAX_CONCURRENCY);
+			if (value != null) {
+				try {
+					max = Integer.parseInt(value.trim());
+				} catch (NumberFormatException e) {
+					//keep the pool's.
+				}
+			}
+			INSTANCE = new XHttpClientConcurrencyController(max);
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * The permits of a host.
+	 */
+	static class Host {
+		private final int max;
+		private int limit;
+		private int inFlight;
+		/** Downloads completed in the current window, their bytes and the time spent with downloads in flight */
+		private int windowCount;
+		private long windowBytes;
+		private long windowBusy;
+		/** When the host last became busy or when the current window started if it was busy then. */
+		private long busySince;
+		/** Throughput of the previous window in bytes per second; 0 when there is none yet. */
+		private double previousThroughput;
+
+		Host(int max) {
+			this.max = max;
+			this.limit = Math.min(INITIAL_LIMIT, max);
+		}
+
+		synchronized void acquire() throws InterruptedException {
+			while (inFlight >= limit) {
+				wait();
+			}
+			if (inFlight++ == 0) {
+				busySince = System.nanoTime();
+			}
+		}
+
+		synchronized void completed(long bytes) {
+			long now = System.nanoTime();
+			end(now);
+			windowCount++;
+			windowBytes += bytes;
+			if (windowCount >= limit && windowBytes >= MIN_WINDOW_BYTES) {
+				long elapsed = windowBusy + (inFlight > 0 ? now - busySince : 0);
+				double throughput = elapsed <= 0 ? 0 : windowBytes * 1e9 / elapsed;
+				if (previousThroughput == 0 || throughput >= previousThroughput * INCREASE_THRESHOLD) {
+					limit = Math.min(max, limit + 1);
+				} else if (throughput < previousThroughput * DECREASE_THRESHOLD) {
+					limit = Math.max(1, Math.min(limit - 1, limit * 3 / 4));
+				}
+				previousThroughput = throughput;
+				resetWindow(now);
+			}
+			notifyAll();
+		}
+
+		synchronized void failed() {
+			long now = System.nanoTime();
+			end(now);
+			limit = Math.max(1, limit / 2);
+			//the throughput measured with more permits is no reference anymore.
+			previousThroughput = 0;
+			resetWindow(now);
+			notifyAll();
+		}
+
+		/**
+		 * Gives the permit back without any measure: the download did not tell anything about the host.
+		 */
+		synchronized void released() {
+			end(System.nanoTime());
+			notifyAll();
+		}
+
+		synchronized int getLimit() {
+			return limit;
+		}
+
+		/**
+		 * A download ends: the time during which the host stayed idle is not part of the window.
+		 */
+		private void end(long now) {
+			if (--inFlight == 0) {
+				windowBusy += now - busySince;
+			}
+		}
+
+		private void resetWindow(long now) {
+			windowCount = 0;
+			windowBytes = 0;
+			windowBusy = 0;
+			busySince = now;
+		}
+	}
+
+	/**
+	 * The permit held by a download. It is given back once.
+	 */
+	public static class Permit {
+		private final Host host;
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		Permit(Host host) {
+			this.host = host;
+		}
+
+		/**
+		 * The body was read.
+		 * @param bytes The number of bytes received
+		 */
+		public void completed(long bytes) {
+			if (done.compareAndSet(false, true)) {
+				host.completed(bytes);
+			}
+		}
+
+		/**
+		 * The download failed because the host is overloaded or unreachable.
+		 */
+		public void failed() {
+			if (done.compareAndSet(false, true)) {
+				host.failed();
+			}
+		}
+
+		/**
+		 * The download ended without telling anything about the host: for example a 404.
+		 */
+		public void release() {
+			if (done.compareAndSet(false, true)) {
+				host.released();
+			}
+		}
+	}
+
+	private final int max;
+	private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+
+	XHttpClientConcurrencyController(int max) {
+		this.max = Math.max(1, max);
+	}
+
+	/**
+	 * Waits until the host accepts one more download.
+	 * @param host The key returned by {@link XHttpClientMetrics#hostOf(String)}
+	 * @return The permit to give back when the download ends.
+	 */
+	public Permit acquire(String host) throws InterruptedException {
+		Host h = getHost(host);
+		h.acquire();
+		return new Permit(h);
+	}
+
+	/**
+	 * @return A stream that gives the permit back when the body is read, fails or is closed.
+	 */
+	public InputStream track(InputStream in, final Permit permit) {
+		return new FilterInputStream(in) {
+			private long count;
+
+			@Override
+			public int read() throws IOException {
+				try {
+					int b = super.read();
+					received(b == -1 ? -1 : 1);
+					return b;
+				} catch (IOException e) {
+					permit.failed();
+					throw e;
+				}
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				try {
+					int n = super.read(b, off, len);
+					received(n);
+					return n;
+				} catch (IOException e) {
+					permit.failed();
+					throw e;
+				}
+			}
+
+			private void received(int n) {
+				if (n > 0) {
+					count += n;
+				} else if (n == -1) {
+					permit.completed(count);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				//closed before the end: cancelled.
+				permit.release();
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * @return The number of concurrent downloads currently allowed from a host.
+	 */
+	public int getLimit(String host) {
+		return getHost(host).getLimit();
+	}
+
+	private Host getHost(String host) {
+		Host h = hosts.get(host);
+		if (h == null) {
+			Host created = new Host(max);
+			h = hosts.putIfAbsent(host, created);
+			if (h == null) {
+				h = created;
+			}
+		}
+		return h;
+	}
+
+}
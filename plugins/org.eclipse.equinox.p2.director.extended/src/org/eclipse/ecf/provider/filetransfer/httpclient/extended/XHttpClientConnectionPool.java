@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * Connection manager shared by all the transfers and browse requests
+ * created by the extended factories.
+ * <p>
+ * Each request still gets its own {@link HttpClient} so that the credentials
+ * of a request never leak into another one; only the connections are shared.
+ * A connection released at the end of a transfer stays open (HTTP keep-alive)
+ * and is reused by the next request to the same host.
+ * The idle connections are closed by a background thread.
+ * A request waits for a free connection at most the connection manager timeout:
+ * it fails with a {@link ConnectionPoolTimeoutException} instead of blocking forever
+ * when all the connections to its host are taken.
+ * </p>
+ * <p>
+ * Configured with the system properties:
+ * <ul>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.maxConnectionsPerHost</code> (default 4)</li>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.maxTotalConnections</code> (default 40)</li>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.idleTimeout</code>
+ * number of milliseconds after which an idle connection is closed (default 30000)</li>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.connectionManagerTimeout</code>
+ * number of milliseconds a request waits for a free connection (default 60000)</li>
+ * </ul>
+ * </p>
+ */
+public class XHttpClientConnectionPool extends MultiThreadedHttpConnectionManager {
+
+	private static final String PROP_PREFIX = "org.eclipse.ecf.provider.filetransfer.httpclient.extended."; //$NON-NLS-1$
+	public static final String PROP_MAX_CONNECTIONS_PER_HOST = PROP_PREFIX + "maxConnectionsPerHost"; //$NON-NLS-1$
+	public static final String PROP_MAX_TOTAL_CONNECTIONS = PROP_PREFIX + "maxTotalConnections"; //$NON-NLS-1$
+	public static final String PROP_IDLE_TIMEOUT = PROP_PREFIX + "idleTimeout"; //$NON-NLS-1$
+	public static final String PROP_CONNECTION_MANAGER_TIMEOUT = PROP_PREFIX + "connectionManagerTimeout"; //$NON-NLS-1$
+
+	private static XHttpClientConnectionPool INSTANCE;
+
+	/**
+	 * @return The pool shared by the extended factories.
+	 */
+	public static synchronized XHttpClientConnectionPool getDefault() {
+		if (INSTANCE == null) {
+			INSTANCE = new XHttpClientConnectionPool(
+					getIntProperty(PROP_MAX_CONNECTIONS_PER_HOST, 4),
+					getIntProperty(PROP_MAX_TOTAL_CONNECTIONS, 40),
+					getIntProperty(PROP_IDLE_TIMEOUT, 30000),
+					getIntProperty(PROP_CONNECTION_MANAGER_TIMEOUT, 60000));
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 * @return A new client that uses the shared pool and waits for a connection
+	 * at most the connection manager timeout.
+	 */
+	public static HttpClient createHttpClient() {
+		XHttpClientConnectionPool pool = getDefault();
+		HttpClient client = new HttpClient(pool);
+		client.getParams().setConnectionManagerTimeout(pool.connectionManagerTimeout);
+		return client;
+	}
+
+	private final AtomicLong requested = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final long connectionManagerTimeout;
+	private IdleConnectionTimeoutThread idleConnectionCloser;
+
+	XHttpClientConnectionPool(int maxPerHost, int maxTotal, long idleTimeout, long connectionManagerTimeout) {
+		this.connectionManagerTimeout = connectionManagerTimeout;
+		HttpConnectionManagerParams params = getParams();
+		params.setDefaultMaxConnectionsPerHost(maxPerHost);
+		params.setMaxTotalConnections(Math.max(maxPerHost, maxTotal));
+		params.setStaleCheckingEnabled(true);
+		if (idleTimeout > 0) {
+			idleConnectionCloser = new IdleConnectionTimeoutThread();
+			idleConnectionCloser.setName("XHttpClient idle connections closer"); //$NON-NLS-1$
+			idleConnectionCloser.setConnectionTimeout(idleTimeout);
+			idleConnectionCloser.setTimeoutInterval(Math.min(idleTimeout, 5000));
+			idleConnectionCloser.addConnectionManager(this);
+			idleConnectionCloser.start();
+		}
+	}
+
+	/**
+	 * A timeout of 0 waits forever: it is replaced by the connection manager timeout
+	 * of the pool so that the clients which reset their parameters are bounded as well.
+	 */
+	@Override
+	public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration,
+			long timeout) throws ConnectionPoolTimeoutException {
+		if (timeout <= 0) {
+			timeout = connectionManagerTimeout;
+		}
+		HttpConnection conn = super.getConnectionWithTimeout(hostConfiguration, timeout);
+		requested.incrementAndGet();
+		boolean open = conn.isOpen();
+		if (open) {
+			reused.incrementAndGet();
+		}
+		XHttpClientMetrics.getDefault().getHost(hostConfiguration.getHost() + ':' + hostConfiguration.getPort())
+				.connection(open);
+		return conn;
+	}
+
+	/**
+	 * Does nothing on purpose: the pool is shared by all the clients created by
+	 * {@link #createHttpClient()}, so a transfer that shuts down the connection manager
+	 * of its client must not close the connections used by the other transfers.
+	 * The free connections are closed by the idle connections closer once they have been
+	 * idle for the idle timeout; that daemon thread lives as long as the JVM.
+	 * Use {@link #closeIdleConnections(long)} to close the free connections earlier.
+	 */
+	@Override
+	public void shutdown() {
+	}
+
+	/**
+	 * @return The number of connections handed out by the pool.
+	 */
+	public long getRequestedCount() {
+		return requested.get();
+	}
+
+	/**
+	 * @return The number of connections handed out that were already open.
+	 */
+	public long getReusedCount() {
+		return reused.get();
+	}
+
+	/**
+	 * @return The ratio of the connections that were reused; 0 when nothing was requested yet.
+	 */
+	public double getReuseRatio() {
+		long req = requested.get();
+		return req == 0 ? 0 : (double) reused.get() / req;
+	}
+
+	private static int getIntProperty(String name, int defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import java.lang.reflect.Field;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+
+/**
+ * The credentials passed in the user info of the urls of a host.
+ * <p>
+ * They are parsed once per scheme, user info and host
+ * and shared by all the transfers and browse requests created by the factories.
+ * </p>
+ * <p>
+ * When the system property <code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.preemptiveAuth</code>
+ * is true, the credentials are sent with the first request to a host once a previous
+ * request to that host was challenged; this saves the 401 round-trip on each request.
+ * Hosts that never challenge are not affected.
+ * </p>
+ */
+class XHttpClientCredentials {
+
+	public static final String PROP_PREEMPTIVE_AUTH = "org.eclipse.ecf.provider.filetransfer.httpclient.extended.preemptiveAuth"; //$NON-NLS-1$
+	private static final boolean PREEMPTIVE_AUTH = Boolean.getBoolean(PROP_PREEMPTIVE_AUTH);
+
+	private static final ConcurrentMap<String, XHttpClientCredentials> CACHE =
+		new ConcurrentHashMap<String, XHttpClientCredentials>();
+
+	/**
+	 * @param url
+	 * @return The credentials in the user info of the url or null if there is no user info.
+	 */
+	static XHttpClientCredentials get(URL url) {
+		String userInfo = url.getUserInfo();
+		if (userInfo == null || userInfo.length() == 0) {
+			return null;
+		}
+		String key = url.getProtocol() + "://" + url.getAuthority(); //$NON-NLS-1$
+		XHttpClientCredentials credentials = CACHE.get(key);
+		if (credentials == null) {
+			credentials = new XHttpClientCredentials(key, url, userInfo);
+			XHttpClientCredentials previous = CACHE.putIfAbsent(key, credentials);
+			if (previous != null) {
+				credentials = previous;
+			}
+		}
+		return credentials;
+	}
+
+	/**
+	 * @return The declared field made accessible or null if it does not exist.
+	 */
+	static Field getAccessibleField(Class<?> clazz, String name) {
+		try {
+			Field field = clazz.getDeclaredField(name);
+			field.setAccessible(true);
+			return field;
+		} catch (Throwable t) {
+			t.printStackTrace();
+			return null;
+		}
+	}
+
+	/** scheme://userinfo@host:port */
+	private final String prefix;
+	/** the same prefix without the user info and with the xhttp(s) scheme replaced by http(s) */
+	private final String strippedPrefix;
+	private final UsernamePasswordCredentials credentials;
+	/** true once the host asked for authentication. */
+	private volatile boolean challenged;
+
+	private XHttpClientCredentials(String prefix, URL url, String userInfo) {
+		this.prefix = prefix;
+		String protocol = url.getProtocol();
+		if (protocol.equals("xhttp")) { //$NON-NLS-1$
+			protocol = "http"; //$NON-NLS-1$
+		} else if (protocol.equals("xhttps")) { //$NON-NLS-1$
+			protocol = "https"; //$NON-NLS-1$
+		}
+		this.strippedPrefix = protocol + "://" + url.getAuthority().substring(userInfo.length() + 1); //$NON-NLS-1$
+		this.credentials = new UsernamePasswordCredentials(userInfo);
+	}
+
+	/**
+	 * @param url A url of this host
+	 * @return The same url without user info or null if it could not be rebuilt.
+	 */
+	URL strip(URL url) {
+		String oriStr = url.toExternalForm();
+		if (!oriStr.startsWith(prefix)) {
+			return null;
+		}
+		try {
+			return new URL(strippedPrefix + oriStr.substring(prefix.length()));
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	UsernamePasswordCredentials getCredentials() {
+		return credentials;
+	}
+
+	String getUserName() {
+		return credentials.getUserName();
+	}
+
+	/**
+	 * @return true if the credentials should be sent without waiting for a challenge.
+	 */
+	boolean isPreemptive() {
+		return PREEMPTIVE_AUTH && challenged;
+	}
+
+	/**
+	 * Records that the host asked for authentication.
+	 */
+	void setChallenged() {
+		challenged = true;
+	}
+
+}
@@ -1,19 +1,21 @@
 package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.net.MalformedURLException;
 import java.net.URL;
 
 import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.eclipse.ecf.core.identity.IDFactory;
 import org.eclipse.ecf.core.security.IConnectContext;
 import org.eclipse.ecf.core.security.UnsupportedCallbackException;
 import org.eclipse.ecf.core.util.Proxy;
+import org.eclipse.ecf.filetransfer.IRemoteFile;
 import org.eclipse.ecf.filetransfer.IRemoteFileSystemListener;
 import org.eclipse.ecf.filetransfer.identity.IFileID;
+import org.eclipse.ecf.provider.filetransfer.browse.URLRemoteFile;
 import org.eclipse.ecf.provider.filetransfer.httpclient.HttpClientFileSystemBrowser;
 
 public class XHttpClientFileSystemBrowser extends HttpClientFileSystemBrowser {
@@ -23,40 +25,15 @@ public class XHttpClientFileSystemBrowser extends HttpClientFileSystemBrowser {
 	 * @return The same url without user info or null if there was no userinfo in there.
 	 */
 	static URL getURLWithoutUserInfo(URL url) {
-		String oriStr = url.toExternalForm();
-		String userInfo = url.getUserInfo();
-		if (userInfo == null || userInfo.length() == 0) {
-			return null;
-		}
-		//make sure we can rebuild the url from the '@' at the end of the
-		//user-info
-		int at = oriStr.indexOf(userInfo+"@");
-		if (at == -1) {
-			return null;
-		}
-		StringBuffer newBuf = new StringBuffer();
-		if (oriStr.startsWith("xhttp://")) {
-			newBuf.append("http://");
-		} else if (oriStr.startsWith("xhttps://")) {
-			newBuf.append("https://");
-		} else {
-			newBuf.append(url.getProtocol()+"://");
-		}
-		newBuf.append(oriStr.substring(at+userInfo.length()+1));
-		try {
-			url = new URL(newBuf.toString());
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-			return null;
-		}
-		return url;
+		XHttpClientCredentials credentials = XHttpClientCredentials.get(url);
+		return credentials != null ? credentials.strip(url) : null;
 	}
 	
 	static IFileID createDerivedIFileID(IFileID original, URL newUrl) {
 		return (IFileID) IDFactory.getDefault().createID(original.getNamespace(), new Object[] {newUrl});
 	}
 	
-	private URL originalURL;
+	private XHttpClientCredentials urlCredentials;
 	
 	
 	public XHttpClientFileSystemBrowser(HttpClient httpClient,
@@ -64,9 +41,10 @@ public class XHttpClientFileSystemBrowser extends HttpClientFileSystemBrowser {
 			URL directoryOrFileURL, IConnectContext connectContext, Proxy proxy) {
 		super(httpClient, directoryOrFileID, listener, directoryOrFileURL,
 				connectContext, proxy);
-		URL withoutUserInfo = getURLWithoutUserInfo(directoryOrFileURL);
+		XHttpClientCredentials credentials = XHttpClientCredentials.get(directoryOrFileURL);
+		URL withoutUserInfo = credentials != null ? credentials.strip(directoryOrFileURL) : null;
 		if (withoutUserInfo != null) {
-			this.originalURL = directoryOrFileURL;
+			this.urlCredentials = credentials;
 			this.directoryOrFile = withoutUserInfo;
 			this.fileID = createDerivedIFileID(directoryOrFileID, withoutUserInfo);
 		}
@@ -80,24 +58,59 @@ public class XHttpClientFileSystemBrowser extends HttpClientFileSystemBrowser {
 			//the super class probably knows better.
 			return cred;
 		}
-		if (originalURL != null) {
-			String userInfo = originalURL.getUserInfo();
-			UsernamePasswordCredentials userNamePass = new UsernamePasswordCredentials(userInfo);
-			setPrivateUsername(userNamePass.getUserName());
-			return userNamePass;
+		if (urlCredentials != null) {
+			setPrivateUsername(urlCredentials.getUserName());
+			return urlCredentials.getCredentials();
 		}
 		return cred;
 	}
 	
 	
-	private static Field FIELD_username;
+	/**
+	 * Sends the credentials preemptively to the hosts known to require them.
+	 * Offline: answers from the content store without any network access.
+	 * Records the request and its response time in the metrics of the host.
+	 */
+	@Override
+	protected void runRequest() throws Exception {
+		ContentStore store = ContentStore.getDefault();
+		if (store != null && store.isOffline()) {
+			File stored = store.getFile(directoryOrFile.toString());
+			if (stored == null) {
+				throw new FileNotFoundException("Offline: " + directoryOrFile //$NON-NLS-1$
+						+ " was never downloaded in the content store"); //$NON-NLS-1$
+			}
+			remoteFiles = new IRemoteFile[] {new URLRemoteFile(stored.lastModified(), stored.length(), fileID)};
+			return;
+		}
+		if (urlCredentials != null && urlCredentials.isPreemptive()) {
+			httpClient.getParams().setAuthenticationPreemptive(true);
+		}
+		XHttpClientMetrics.Host host = XHttpClientMetrics.getDefault().getHost(
+				XHttpClientMetrics.hostOf(directoryOrFile.toString()));
+		host.request();
+		long start = System.nanoTime();
+		try {
+			super.runRequest();
+		} catch (Exception e) {
+			host.error();
+			throw e;
+		}
+		host.firstByte(System.nanoTime() - start);
+	}
+
+	/** The username is private in the super class: resolved once. */
+	private static final Field FIELD_username =
+		XHttpClientCredentials.getAccessibleField(HttpClientFileSystemBrowser.class, "username");
+	/** true once the username of the url is set on this instance. */
+	private boolean usernameSet;
 	private void setPrivateUsername(String username) {
+		if (FIELD_username == null || usernameSet) {
+			return;
+		}
 		try {
-			if (FIELD_username == null) {
-				FIELD_username = HttpClientFileSystemBrowser.class.getDeclaredField("username");
-				FIELD_username.setAccessible(true);
-			}
 			FIELD_username.set(this, username);
+			usernameSet = true;
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
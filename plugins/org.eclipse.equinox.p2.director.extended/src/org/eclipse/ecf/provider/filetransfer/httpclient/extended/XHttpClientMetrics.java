@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per host metrics of the transfers and browse requests of the extended factories.
+ * <p>
+ * For each host: the requests sent (transfers, browse requests and resumed ranges),
+ * the errors, the 401 challenges, the connections taken from the shared pool and how many
+ * of them were reused, the resumed downloads, the bytes received,
+ * the time to the response headers and a histogram of the throughput of the bodies.
+ * The throughput of a body is measured from its first byte to its last one so
+ * the latency of the host does not weigh on it.
+ * </p>
+ * <p>
+ * The registry is shared by the JVM; the director and the mirror application
+ * write it at the end of a run with their -metrics option.
+ * </p>
+ */
+public class XHttpClientMetrics {
+
+	/** Upper bounds of the buckets of the throughput histogram in bytes per second. */
+	static final long[] THROUGHPUT_BUCKETS = {
+		64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024, 16 * 1024 * 1024, Long.MAX_VALUE
+	};
+
+	/** Names of the counters in the order of {@link Host#getCounters()} */
+	static final String[] COUNTERS = {
+		"requests", "errors", "challenges", "connections", "reused_connections", "retries", "bytes" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+	};
+
+	private static final XHttpClientMetrics INSTANCE = new XHttpClientMetrics();
+
+	/**
+	 * @return The registry shared by the JVM.
+	 */
+	public static XHttpClientMetrics getDefault() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param url The url of a request
+	 * @return The key of its host: host:port with the default port when there is none.
+	 */
+	public static String hostOf(String url) {
+		try {
+			URI uri = new URI(url);
+			String host = uri.getHost();
+			if (host == null) {
+				return String.valueOf(uri.getScheme());
+			}
+			int port = uri.getPort();
+			if (port == -1) {
+				port = uri.getScheme() != null && uri.getScheme().endsWith("s") ? 443 : 80; //$NON-NLS-1$
+			}
+			return host + ':' + port;
+		} catch (URISyntaxException e) {
+			return "unknown"; //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * The metrics of one host.
+	 */
+	public static class Host {
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong challenges = new AtomicLong();
+		private final AtomicLong connections = new AtomicLong();
+		private final AtomicLong reusedConnections = new AtomicLong();
+		private final AtomicLong retries = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicLong ttfbCount = new AtomicLong();
+		private final AtomicLong ttfbNanos = new AtomicLong();
+		private final AtomicLong ttfbMaxNanos = new AtomicLong();
+		private final AtomicLong transferNanos = new AtomicLong();
+		private final AtomicLongArray throughput = new AtomicLongArray(THROUGHPUT_BUCKETS.length);
+
+		public void request() {
+			requests.incrementAndGet();
+		}
+
+		public void error() {
+			errors.incrementAndGet();
+		}
+
+		public void challenge() {
+			challenges.incrementAndGet();
+		}
+
+		public void connection(boolean reused) {
+			connections.incrementAndGet();
+			if (reused) {
+				reusedConnections.incrementAndGet();
+			}
+		}
+
+		public void retry() {
+			retries.incrementAndGet();
+		}
+
+		/**
+		 * @param nanos The time between the request and its response headers
+		 */
+		public void firstByte(long nanos) {
+			ttfbCount.incrementAndGet();
+			ttfbNanos.addAndGet(nanos);
+			long max = ttfbMaxNanos.get();
+			while (nanos > max && !ttfbMaxNanos.compareAndSet(max, nanos)) {
+				max = ttfbMaxNanos.get();
+			}
+		}
+
+		/**
+		 * @param length The bytes of a body
+		 * @param nanos The time between its first and its last byte
+		 */
+		public void transferred(long length, long nanos) {
+			bytes.addAndGet(length);
+			transferNanos.addAndGet(nanos);
+			if (length <= 0 || nanos <= 0) {
+				return;
+			}
+			long bytesPerSecond = (long) (length * 1e9 / nanos);
+			for (int i = 0; i < THROUGHPUT_BUCKETS.length; i++) {
+				if (bytesPerSecond <= THROUGHPUT_BUCKETS[i]) {
+					throughput.incrementAndGet(i);
+					break;
+				}
+			}
+		}
+
+		public long getRequests() {
+			return requests.get();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		public long getChallenges() {
+			return challenges.get();
+		}
+
+		public long getConnections() {
+			return connections.get();
+		}
+
+		public long getReusedConnections() {
+			return reusedConnections.get();
+		}
+
+		public long getRetries() {
+			return retries.get();
+		}
+
+		public long getBytes() {
+			return bytes.get();
+		}
+
+		/**
+		 * @return The counters in the order of their names in {@link XHttpClientMetrics#COUNTERS}
+		 */
+		long[] getCounters() {
+			return new long[] {getRequests(), getErrors(), getChallenges(), getConnections(),
+					getReusedConnections(), getRetries(), getBytes()};
+		}
+
+		/**
+		 * @return The average time to the response headers in ms; 0 when there was no response.
+		 */
+		public long getAverageTimeToFirstByte() {
+			long count = ttfbCount.get();
+			return count == 0 ? 0 : ttfbNanos.get() / count / 1000000;
+		}
+
+		/**
+		 * @return The average throughput of the bodies in bytes per second; 0 when nothing was received.
+		 */
+		public long getThroughput() {
+			long nanos = transferNanos.get();
+			return nanos == 0 ? 0 : (long) (bytes.get() * 1e9 / nanos);
+		}
+	}
+
+	private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+
+	/**
+	 * @param host The key returned by {@link #hostOf(String)}
+	 * @return The metrics of the host, created on the first call.
+	 */
+	public Host getHost(String host) {
+		Host h = hosts.get(host);
+		if (h == null) {
+			Host created = new Host();
+			h = hosts.putIfAbsent(host, created);
+			if (h == null) {
+				h = created;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Forgets all the hosts: called at the beginning of a run.
+	 */
+	public void reset() {
+		hosts.clear();
+	}
+
+	/**
+	 * @return A stream that reports the bytes of a body and its throughput to the host
+	 * when it reaches its end or is closed.
+	 */
+	public InputStream meter(InputStream in, final Host host) {
+		return new FilterInputStream(in) {
+			private long first = -1;
+			private long count;
+			private boolean done;
+
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				received(b == -1 ? -1 : 1);
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				received(n);
+				return n;
+			}
+
+			private void received(int n) {
+				if (n > 0) {
+					if (first == -1) {
+						first = System.nanoTime();
+					}
+					count += n;
+				} else if (n == -1) {
+					report();
+				}
+			}
+
+			private void report() {
+				if (!done) {
+					done = true;
+					host.transferred(count, first == -1 ? 0 : System.nanoTime() - first);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				report();
+				super.close();
+			}
+		};
+	}
+
+	public String toJSON() {
+		StringBuilder sb = new StringBuilder("{"); //$NON-NLS-1$
+		boolean first = true;
+		for (Map.Entry<String, Host> e : sortedHosts().entrySet()) {
+			Host h = e.getValue();
+			sb.append(first ? "\n    \"" : ",\n    \"").append(e.getKey()).append("\": {"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			sb.append("\"requests\": ").append(h.getRequests()); //$NON-NLS-1$
+			sb.append(", \"errors\": ").append(h.getErrors()); //$NON-NLS-1$
+			sb.append(", \"challenges\": ").append(h.getChallenges()); //$NON-NLS-1$
+			sb.append(", \"connections\": ").append(h.getConnections()); //$NON-NLS-1$
+			sb.append(", \"reusedConnections\": ").append(h.getReusedConnections()); //$NON-NLS-1$
+			sb.append(", \"retries\": ").append(h.getRetries()); //$NON-NLS-1$
+			sb.append(", \"bytes\": ").append(h.getBytes()); //$NON-NLS-1$
+			sb.append(", \"ttfbAvgMs\": ").append(h.getAverageTimeToFirstByte()); //$NON-NLS-1$
+			sb.append(", \"ttfbMaxMs\": ").append(h.ttfbMaxNanos.get() / 1000000); //$NON-NLS-1$
+			sb.append(", \"throughput\": ").append(h.getThroughput()); //$NON-NLS-1$
+			sb.append(", \"throughputHistogram\": {"); //$NON-NLS-1$
+			for (int i = 0; i < THROUGHPUT_BUCKETS.length; i++) {
+				sb.append(i == 0 ? "\"" : ", \"").append(bucketName(i)).append("\": ").append(h.throughput.get(i)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+			sb.append("}}"); //$NON-NLS-1$
+			first = false;
+		}
+		sb.append(first ? "}" : "\n  }"); //$NON-NLS-1$ //$NON-NLS-2$
+		return sb.toString();
+	}
+
+	public String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+		Map<String, Host> sorted = sortedHosts();
+		for (int i = 0; i < COUNTERS.length; i++) {
+			appendCounter(sb, sorted, i);
+		}
+		sb.append("# TYPE xhttp_ttfb_seconds summary\n"); //$NON-NLS-1$
+		for (Map.Entry<String, Host> e : sorted.entrySet()) {
+			sb.append("xhttp_ttfb_seconds_count{host=\"").append(e.getKey()).append("\"} ").append(e.getValue().ttfbCount.get()).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+			sb.append("xhttp_ttfb_seconds_sum{host=\"").append(e.getKey()).append("\"} ").append(e.getValue().ttfbNanos.get() / 1e9).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		sb.append("# TYPE xhttp_throughput_bytes_per_second histogram\n"); //$NON-NLS-1$
+		for (Map.Entry<String, Host> e : sorted.entrySet()) {
+			long cumulated = 0;
+			for (int i = 0; i < THROUGHPUT_BUCKETS.length; i++) {
+				cumulated += e.getValue().throughput.get(i);
+				String le = THROUGHPUT_BUCKETS[i] == Long.MAX_VALUE ? "+Inf" : String.valueOf(THROUGHPUT_BUCKETS[i]); //$NON-NLS-1$
+				sb.append("xhttp_throughput_bytes_per_second_bucket{host=\"").append(e.getKey()).append("\",le=\"").append(le).append("\"} ").append(cumulated).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+			sb.append("xhttp_throughput_bytes_per_second_count{host=\"").append(e.getKey()).append("\"} ").append(cumulated).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the registry as JSON when the name of the file ends with .json,
+	 * in the Prometheus text format otherwise.
+	 */
+	public void write(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+		try {
+			if (file.getName().endsWith(".json")) { //$NON-NLS-1$
+				w.write("{\n  \"hosts\": " + toJSON() + "\n}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			} else {
+				w.write(toPrometheus());
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	private Map<String, Host> sortedHosts() {
+		return new TreeMap<String, Host>(hosts);
+	}
+
+	private static String bucketName(int i) {
+		return THROUGHPUT_BUCKETS[i] == Long.MAX_VALUE ? "more" : "le" + THROUGHPUT_BUCKETS[i] / 1024 + "KB"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private static void appendCounter(StringBuilder sb, Map<String, Host> hosts, int index) {
+		String name = "xhttp_" + COUNTERS[index] + "_total"; //$NON-NLS-1$ //$NON-NLS-2$
+		sb.append("# TYPE ").append(name).append(" counter\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (Map.Entry<String, Host> e : hosts.entrySet()) {
+			sb.append(name).append("{host=\"").append(e.getKey()).append("\"} ").append(e.getValue().getCounters()[index]).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+}
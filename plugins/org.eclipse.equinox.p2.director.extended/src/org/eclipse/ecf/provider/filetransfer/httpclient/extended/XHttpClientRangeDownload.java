@@ -0,0 +1,475 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+/**
+ * Range based download of a file that was requested in full.
+ * <p>
+ * The body of the response is wrapped so that:
+ * <ul>
+ * <li>when the connection drops before the end of the file the download resumes
+ * from the last byte received with a <code>Range</code> request
+ * guarded by <code>If-Range</code>,</li>
+ * <li>optionally, when the file is large and the server accepts byte ranges,
+ * the rest of the file is fetched as parallel byte ranges written into a temporary file
+ * while the original response serves the first range.
+ * The ranges are then read back in order so the consumer sees a single stream.</li>
+ * </ul>
+ * A compressed response is never split nor resumed: its ranges would not be the ones of the file.
+ * </p>
+ * <p>
+ * Configured with the system properties:
+ * <ul>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.resumeRetries</code>
+ * maximum number of times a download is resumed (default 3, 0 to disable)</li>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.parallelRanges</code>
+ * number of ranges downloaded in parallel (default 1: disabled)</li>
+ * <li><code>org.eclipse.ecf.provider.filetransfer.httpclient.extended.parallelThreshold</code>
+ * minimum size in bytes of a file downloaded in parallel ranges (default 32MB)</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The ranges take their connections from the shared pool: the original response is aborted
+ * and its connection given back as soon as it is not read anymore, it is never drained,
+ * and a range waits at most
+ * {@link #RANGE_CONNECTION_TIMEOUT} ms for a connection so that concurrent downloads from
+ * the same host never wait for each other forever.
+ * </p>
+ */
+class XHttpClientRangeDownload {
+
+	private static final String PROP_PREFIX = "org.eclipse.ecf.provider.filetransfer.httpclient.extended."; //$NON-NLS-1$
+	public static final String PROP_RESUME_RETRIES = PROP_PREFIX + "resumeRetries"; //$NON-NLS-1$
+	public static final String PROP_PARALLEL_RANGES = PROP_PREFIX + "parallelRanges"; //$NON-NLS-1$
+	public static final String PROP_PARALLEL_THRESHOLD = PROP_PREFIX + "parallelThreshold"; //$NON-NLS-1$
+
+	static final int RESUME_RETRIES = (int) getLongProperty(PROP_RESUME_RETRIES, 3);
+	static final int PARALLEL_RANGES = (int) getLongProperty(PROP_PARALLEL_RANGES, 1);
+	static final long PARALLEL_THRESHOLD = getLongProperty(PROP_PARALLEL_THRESHOLD, 32 * 1024 * 1024);
+	/** Maximum number of milliseconds a range waits for a connection of the pool. */
+	static final long RANGE_CONNECTION_TIMEOUT = 30000;
+
+	/**
+	 * @param client The client that executed the request
+	 * @param url The url of the file without the user info
+	 * @param method The method of the complete response
+	 * @param body The body of the response
+	 * @param length The length of the file or -1 if unknown
+	 * @return The stream to read the file from.
+	 */
+	static InputStream wrap(HttpClient client, String url, HttpMethod method, InputStream body, long length) {
+		if (method.getStatusCode() != HttpURLConnection.HTTP_OK || isCompressed(method)) {
+			return body;
+		}
+		String validator = getValidator(method);
+		if (validator == null) {
+			//no way to make sure the ranges come from the same version of the file.
+			return body;
+		}
+		//the pool must not block the ranges forever when the other downloads hold all the connections of the host.
+		client.getParams().setConnectionManagerTimeout(RANGE_CONNECTION_TIMEOUT);
+		if (PARALLEL_RANGES > 1 && length >= PARALLEL_THRESHOLD && length > PARALLEL_RANGES
+				&& acceptsRanges(method)) {
+			return new ParallelRangesInputStream(client, url, method, body, length, validator);
+		}
+		if (RESUME_RETRIES > 0) {
+			return new ResumingInputStream(client, url, method, body, 0, length, validator);
+		}
+		return body;
+	}
+
+	private static boolean isCompressed(HttpMethod method) {
+		Header encoding = method.getResponseHeader("Content-Encoding"); //$NON-NLS-1$
+		return encoding != null && !"identity".equalsIgnoreCase(encoding.getValue().trim()); //$NON-NLS-1$
+	}
+
+	private static boolean acceptsRanges(HttpMethod method) {
+		Header ranges = method.getResponseHeader("Accept-Ranges"); //$NON-NLS-1$
+		return ranges != null && ranges.getValue().toLowerCase().indexOf("bytes") != -1; //$NON-NLS-1$
+	}
+
+	/**
+	 * @return The strong ETag or the Last-Modified date that identifies this version of the file
+	 * or null when there is none.
+	 */
+	private static String getValidator(HttpMethod method) {
+		Header etag = method.getResponseHeader("ETag"); //$NON-NLS-1$
+		if (etag != null && !etag.getValue().startsWith("W/")) { //$NON-NLS-1$
+			return etag.getValue();
+		}
+		Header lastModified = method.getResponseHeader("Last-Modified"); //$NON-NLS-1$
+		return lastModified != null ? lastModified.getValue() : null;
+	}
+
+	/**
+	 * Sends a range request.
+	 * @param end The index of the last byte excluded or -1 for the end of the file
+	 * @return The executed method which response is a partial content.
+	 * @throws IOException when the server did not send the requested range.
+	 */
+	private static HttpMethod openRange(HttpClient client, String url, long start, long end, String validator) throws IOException {
+		GetMethod get = new GetMethod(url);
+		get.setFollowRedirects(true);
+		get.setRequestHeader("Range", "bytes=" + start + "-" + (end == -1 ? "" : String.valueOf(end - 1))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		if (validator != null) {
+			get.setRequestHeader("If-Range", validator); //$NON-NLS-1$
+		}
+		XHttpClientMetrics.Host host = XHttpClientMetrics.getDefault().getHost(XHttpClientMetrics.hostOf(url));
+		host.request();
+		boolean ok = false;
+		try {
+			int code = client.executeMethod(get);
+			if (code != HttpURLConnection.HTTP_PARTIAL) {
+				throw new IOException("Unable to resume the download of " + url + " at byte " + start //$NON-NLS-1$ //$NON-NLS-2$
+						+ ": the server answered " + code); //$NON-NLS-1$
+			}
+			ok = true;
+			return get;
+		} finally {
+			if (!ok) {
+				host.error();
+				get.abort();
+				get.releaseConnection();
+			}
+		}
+	}
+
+	private static long getLongProperty(String name, long defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Reads a range of a file and resumes it when the connection drops.
+	 */
+	static class ResumingInputStream extends InputStream {
+
+		private final HttpClient client;
+		private final String url;
+		private final String validator;
+		/** The method of the original response: it is owned by the transfer. */
+		private final HttpMethod originalMethod;
+		private final long end;
+		private volatile HttpMethod method;
+		private InputStream in;
+		private long position;
+		private int retries = RESUME_RETRIES;
+
+		/**
+		 * @param originalMethod The method of the body already opened or null
+		 * @param body The body already opened or null to open the range now
+		 * @param end The index of the last byte excluded or -1 if unknown
+		 */
+		ResumingInputStream(HttpClient client, String url, HttpMethod originalMethod, InputStream body, long start, long end, String validator) {
+			this.client = client;
+			this.url = url;
+			this.originalMethod = originalMethod;
+			this.method = originalMethod;
+			this.in = body;
+			this.position = start;
+			this.end = end;
+			this.validator = validator;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (end != -1) {
+				if (position >= end) {
+					return -1;
+				}
+				len = (int) Math.min(len, end - position);
+			}
+			while (true) {
+				IOException failure;
+				try {
+					if (in == null) {
+						resume();
+					}
+					int n = in.read(b, off, len);
+					if (n != -1) {
+						position += n;
+						return n;
+					}
+					if (end == -1) {
+						return -1;
+					}
+					failure = new IOException("Connection closed after " + position + " bytes of " + url //$NON-NLS-1$ //$NON-NLS-2$
+							+ " instead of " + end); //$NON-NLS-1$
+				} catch (IOException e) {
+					failure = e;
+				}
+				if (retries-- <= 0) {
+					throw failure;
+				}
+				XHttpClientMetrics.getDefault().getHost(XHttpClientMetrics.hostOf(url)).retry();
+				release();
+			}
+		}
+
+		private void resume() throws IOException {
+			method = openRange(client, url, position, end, validator);
+			in = method.getResponseBodyAsStream();
+		}
+
+		/**
+		 * Drops the current connection and gives it back to the pool,
+		 * including the one of the original response: the range that resumes it needs a connection.
+		 * Releasing the original method again when the transfer ends is harmless.
+		 */
+		private void release() {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//nevermind
+				}
+				in = null;
+			}
+			if (method != null) {
+				method.abort();
+				method.releaseConnection();
+				method = null;
+			}
+		}
+
+		/**
+		 * Drops the connection without reading the rest of the response.
+		 * Called by another thread to cancel the download.
+		 */
+		void abort() {
+			HttpMethod m = method;
+			if (m != null) {
+				m.abort();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (method != null && end != -1 && position < end) {
+				//do not drain a response that we stop reading, including the original one.
+				method.abort();
+			}
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					//the connection was aborted.
+				}
+				in = null;
+			}
+			if (method != null && method != originalMethod) {
+				method.releaseConnection();
+			}
+			method = null;
+		}
+
+	}
+
+	/**
+	 * Serves the first range from the original response while the other ranges
+	 * are downloaded in parallel into a temporary file.
+	 */
+	static class ParallelRangesInputStream extends InputStream {
+
+		private final HttpMethod originalMethod;
+		private final long length;
+		private final long rangeSize;
+		private final ResumingInputStream first;
+		private final File tmpFile;
+		private final ExecutorService executor;
+		/** Future of each range; the first range has none. */
+		private final Future<?>[] ranges;
+		/** The ranges being downloaded: aborted when the stream is closed early. */
+		private final List<ResumingInputStream> active = new ArrayList<ResumingInputStream>();
+		private RandomAccessFile reader;
+		private long position;
+
+		ParallelRangesInputStream(final HttpClient client, final String url, HttpMethod method, InputStream body,
+				final long length, final String validator) {
+			this.originalMethod = method;
+			this.length = length;
+			this.rangeSize = (length + PARALLEL_RANGES - 1) / PARALLEL_RANGES;
+			this.first = new ResumingInputStream(client, url, method, body, 0, rangeSize, validator);
+			File tmp = null;
+			try {
+				tmp = File.createTempFile("xhttp", ".part"); //$NON-NLS-1$ //$NON-NLS-2$
+				tmp.deleteOnExit();
+			} catch (IOException e) {
+				//the ranges will fail and report it.
+			}
+			this.tmpFile = tmp;
+			this.executor = Executors.newFixedThreadPool(PARALLEL_RANGES - 1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "XHttpClient range download " + url); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			int count = (int) ((length + rangeSize - 1) / rangeSize);
+			this.ranges = new Future<?>[count];
+			for (int i = 1; i < count; i++) {
+				final long start = i * rangeSize;
+				final long end = Math.min(length, start + rangeSize);
+				ranges[i] = executor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						downloadRange(client, url, start, end, validator);
+						return null;
+					}
+				});
+			}
+		}
+
+		private void downloadRange(HttpClient client, String url, long start, long end, String validator) throws IOException {
+			if (tmpFile == null) {
+				throw new IOException("Unable to create a temporary file to download " + url); //$NON-NLS-1$
+			}
+			ResumingInputStream in = new ResumingInputStream(client, url, null, null, start, end, validator);
+			synchronized (active) {
+				active.add(in);
+			}
+			RandomAccessFile out = new RandomAccessFile(tmpFile, "rw"); //$NON-NLS-1$
+			try {
+				out.seek(start);
+				byte[] buf = new byte[8192];
+				int n;
+				while ((n = in.read(buf, 0, buf.length)) != -1) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new IOException("Download of " + url + " cancelled"); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					out.write(buf, 0, n);
+				}
+			} finally {
+				synchronized (active) {
+					active.remove(in);
+				}
+				in.close();
+				out.close();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= length) {
+				return -1;
+			}
+			int n;
+			if (position < rangeSize) {
+				n = first.read(b, off, len);
+				if (n == -1) {
+					throw new IOException("Unexpected end of the first range"); //$NON-NLS-1$
+				}
+				if (position + n >= rangeSize) {
+					//the rest of the original response is fetched by the other ranges:
+					//abort it before closing its body which would read it to the end,
+					//then give its connection back to the pool for the other ranges.
+					originalMethod.abort();
+					first.close();
+					originalMethod.releaseConnection();
+				}
+			} else {
+				int index = (int) (position / rangeSize);
+				waitFor(index);
+				if (reader == null) {
+					reader = new RandomAccessFile(tmpFile, "r"); //$NON-NLS-1$
+					reader.seek(position);
+				}
+				long rangeEnd = Math.min(length, (index + 1) * rangeSize);
+				n = reader.read(b, off, (int) Math.min(len, rangeEnd - position));
+				if (n == -1) {
+					throw new IOException("Unexpected end of " + tmpFile); //$NON-NLS-1$
+				}
+			}
+			position += n;
+			return n;
+		}
+
+		private void waitFor(int index) throws IOException {
+			try {
+				ranges[index].get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a range"); //$NON-NLS-1$
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				IOException ioe = new IOException(String.valueOf(e.getCause()));
+				ioe.initCause(e.getCause());
+				throw ioe;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			executor.shutdownNow();
+			synchronized (active) {
+				for (ResumingInputStream range : active) {
+					range.abort();
+				}
+			}
+			//the original response goes beyond the first range: never drain it.
+			originalMethod.abort();
+			try {
+				first.close();
+			} finally {
+				if (reader != null) {
+					reader.close();
+					reader = null;
+				}
+				if (tmpFile != null) {
+					tmpFile.delete();
+				}
+			}
+		}
+
+	}
+
+}
@@ -10,7 +10,10 @@
  */
 package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -18,7 +21,7 @@ import java.util.Map;
 
 import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.HttpStatus;
 import org.eclipse.ecf.core.identity.IDFactory;
 import org.eclipse.ecf.core.identity.Namespace;
 import org.eclipse.ecf.core.security.UnsupportedCallbackException;
@@ -27,6 +30,7 @@ import org.eclipse.ecf.filetransfer.IFileTransferListener;
 import org.eclipse.ecf.filetransfer.IncomingFileTransferException;
 import org.eclipse.ecf.filetransfer.identity.IFileID;
 import org.eclipse.ecf.provider.filetransfer.httpclient.HttpClientRetrieveFileTransfer;
+import org.eclipse.equinox.p2.director.extended.internal.DirectorMetrics;
 
 /**
  * Adds support for passing the user info in the url.
@@ -40,10 +44,24 @@ public class XHttpClientRetrieveFileTransfer extends
 		HttpClientRetrieveFileTransfer {
 
 	
-	private URL originalUrl;
+	private XHttpClientCredentials urlCredentials;
+	/** The range requested by the caller or null: the response is returned as is. */
+	private IFileRangeSpecification rangeSpec;
+	/** null unless the adaptive concurrency is enabled */
+	private final XHttpClientConcurrencyController concurrency;
+	/** The permit of the host until it is handed to the body. */
+	private XHttpClientConcurrencyController.Permit permit;
 	
 	public XHttpClientRetrieveFileTransfer(HttpClient httpClient) {
+		this(httpClient, null);
+	}
+
+	/**
+	 * @param concurrency The controller of the concurrent downloads per host or null
+	 */
+	public XHttpClientRetrieveFileTransfer(HttpClient httpClient, XHttpClientConcurrencyController concurrency) {
 		super(httpClient);
+		this.concurrency = concurrency;
 	}
 
 	@Override
@@ -54,11 +72,9 @@ public class XHttpClientRetrieveFileTransfer extends
 			//the super class probably knows better.
 			return cred;
 		}
-		if (originalUrl != null) {
-			String userInfo = originalUrl.getUserInfo();
-			UsernamePasswordCredentials userNamePass = new UsernamePasswordCredentials(userInfo);
-			setPrivateUsername(userNamePass.getUserName());
-			return userNamePass;
+		if (urlCredentials != null) {
+			setPrivateUsername(urlCredentials.getUserName());
+			return urlCredentials.getCredentials();
 		}
 		return cred;
 	}
@@ -72,11 +88,14 @@ public class XHttpClientRetrieveFileTransfer extends
 			IFileRangeSpecification rangeSpec,
 			IFileTransferListener transferListener, Map ops)
 			throws IncomingFileTransferException {
+		this.rangeSpec = rangeSpec;
 		try {
 			URL ori = rFileID.getURL();
-			URL url = XHttpClientFileSystemBrowser.getURLWithoutUserInfo(ori);
+			XHttpClientCredentials credentials = XHttpClientCredentials.get(ori);
+			URL url = credentials != null ? credentials.strip(ori) : null;
 			if (url != null) {
-				this.originalUrl = ori;
+				this.urlCredentials = credentials;
+				this.usernameSet = false;
 				Namespace namespace = rFileID.getNamespace();
 				rFileID = (IFileID) IDFactory.getDefault().createID(namespace, new Object[] {url});
 			}
@@ -88,15 +107,153 @@ public class XHttpClientRetrieveFileTransfer extends
 		super.sendRetrieveRequest(rFileID, rangeSpec, transferListener, ops);
 	}
 
+	/**
+	 * Sends the credentials preemptively to the hosts known to require them
+	 * and learns which hosts do.
+	 * Records the request, its time to the response headers and its challenges in the metrics of the host.
+	 * With the adaptive concurrency, waits for a permit of the host first.
+	 */
+	@Override
+	protected void openStreams() throws IncomingFileTransferException {
+		ContentStore store = ContentStore.getDefault();
+		if (store != null && store.isOffline()) {
+			openStreamsFromStore(store);
+			return;
+		}
+		if (urlCredentials != null && urlCredentials.isPreemptive()) {
+			httpClient.getParams().setAuthenticationPreemptive(true);
+		}
+		if (concurrency != null) {
+			try {
+				permit = concurrency.acquire(XHttpClientMetrics.hostOf(getRemoteFileURL().toString()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IncomingFileTransferException(e);
+			}
+		}
+		XHttpClientMetrics.Host host = getHostMetrics();
+		host.request();
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			super.openStreams();
+			host.firstByte(System.nanoTime() - start);
+			ok = true;
+		} finally {
+			if (!ok) {
+				host.error();
+			}
+			if (permit != null) {
+				//not handed to a body.
+				if (!ok && isCongestion()) {
+					permit.failed();
+				} else {
+					permit.release();
+				}
+				permit = null;
+			}
+			if (getMethod != null && getMethod.getHostAuthState().isAuthRequested()) {
+				host.challenge();
+				if (urlCredentials != null) {
+					urlCredentials.setChallenged();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Offline: serves the file from the content store without any network access.
+	 */
+	private void openStreamsFromStore(ContentStore store) throws IncomingFileTransferException {
+		String url = getRemoteFileURL().toString();
+		File stored = store.getFile(url);
+		if (stored == null) {
+			//not found: p2 reports a missing file rather than a failed transfer.
+			throw new IncomingFileTransferException("Offline: " + url //$NON-NLS-1$
+					+ " was never downloaded in the content store", HttpStatus.SC_NOT_FOUND); //$NON-NLS-1$
+		}
+		try {
+			InputStream in = new FileInputStream(stored);
+			fileLength = stored.length();
+			if (rangeSpec != null && rangeSpec.getStartPosition() > 0) {
+				long start = rangeSpec.getStartPosition();
+				while (start > 0) {
+					long skipped = in.skip(start);
+					if (skipped <= 0) {
+						break;
+					}
+					start -= skipped;
+				}
+				fileLength -= rangeSpec.getStartPosition();
+			}
+			remoteFileContents = in;
+		} catch (IOException e) {
+			throw new IncomingFileTransferException(e);
+		}
+		fireReceiveStartEvent();
+	}
+
+	/**
+	 * Wraps the body of a complete response to resume it when the connection drops
+	 * and optionally download large files as parallel ranges.
+	 * When a content store is configured the body is copied in it.
+	 * The bytes received and the throughput are recorded in the metrics of the host.
+	 * The permit of the host is given back at the end of the body.
+	 */
+	@Override
+	protected void fireReceiveStartEvent() {
+		if (rangeSpec == null && remoteFileContents != null && getMethod != null
+				&& getMethod.getStatusCode() == HttpStatus.SC_OK) {
+			String url = getRemoteFileURL().toString();
+			remoteFileContents = XHttpClientRangeDownload.wrap(httpClient,
+					url, getMethod, remoteFileContents, getFileLength());
+			ContentStore store = ContentStore.getDefault();
+			if (store != null) {
+				remoteFileContents = store.tee(url, remoteFileContents);
+			}
+		}
+		if (remoteFileContents != null && getMethod != null) {
+			remoteFileContents = XHttpClientMetrics.getDefault().meter(remoteFileContents, getHostMetrics());
+			DirectorMetrics metrics = DirectorMetrics.getDefault();
+			if (metrics != null) {
+				remoteFileContents = metrics.countBytes(remoteFileContents, "bytes.downloaded"); //$NON-NLS-1$
+			}
+		}
+		if (permit != null && remoteFileContents != null) {
+			remoteFileContents = concurrency.track(remoteFileContents, permit);
+			permit = null;
+		}
+		super.fireReceiveStartEvent();
+	}
+
+	/**
+	 * @return true when the request failed because the host is unreachable, too slow or overloaded.
+	 */
+	private boolean isCongestion() {
+		if (getMethod == null || getMethod.getStatusLine() == null) {
+			//no response: connection refused, reset or timed out.
+			return true;
+		}
+		int code = getMethod.getStatusCode();
+		return code == 429 || code >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+	}
+
+	private XHttpClientMetrics.Host getHostMetrics() {
+		return XHttpClientMetrics.getDefault().getHost(XHttpClientMetrics.hostOf(getRemoteFileURL().toString()));
+	}
 	
-	private static Field FIELD_username;
+	/** The username is private in the super class: resolved once. */
+	private static final Field FIELD_username =
+		XHttpClientCredentials.getAccessibleField(HttpClientRetrieveFileTransfer.class, "username");
+	/** true once the username of the url is set on this instance. */
+	private boolean usernameSet;
 	private void setPrivateUsername(String username) {
+		if (FIELD_username == null || usernameSet) {
+			return;
+		}
 		try {
-			if (FIELD_username == null) {
-				FIELD_username = HttpClientRetrieveFileTransfer.class.getDeclaredField("username");
-				FIELD_username.setAccessible(true);
-			}
 			FIELD_username.set(this, username);
+			usernameSet = true;
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
@@ -10,8 +10,6 @@
  */
 package org.eclipse.ecf.provider.filetransfer.httpclient.extended;
 
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.eclipse.ecf.filetransfer.service.IRetrieveFileTransfer;
 import org.eclipse.ecf.filetransfer.service.IRetrieveFileTransferFactory;
 
@@ -27,8 +25,9 @@ public class XHttpClientRetrieveFileTransferFactory implements
 		IRetrieveFileTransferFactory {
 
 	public IRetrieveFileTransfer newInstance() {
-		return new XHttpClientRetrieveFileTransfer(new HttpClient(
-				new MultiThreadedHttpConnectionManager()));
+		return new XHttpClientRetrieveFileTransfer(
+				XHttpClientConnectionPool.createHttpClient(),
+				XHttpClientConcurrencyController.getDefault());
 	}
 
 }
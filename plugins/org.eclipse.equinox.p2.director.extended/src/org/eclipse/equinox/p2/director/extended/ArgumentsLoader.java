@@ -11,21 +11,34 @@
 package org.eclipse.equinox.p2.director.extended;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.ecf.core.util.Base64;
+import org.eclipse.ecf.provider.filetransfer.httpclient.extended.ContentStore;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.core.ProvisionException;
 
 /**
@@ -36,6 +49,7 @@ import org.eclipse.equinox.p2.core.ProvisionException;
  */
 public class ArgumentsLoader {
 
+	private static final String BUNDLE_ID = "org.eclipse.equinox.p2.director.extended";
 	
 	/** when the key or the value of a system property is thispropertiesserver then we replace it by the 
 	 * server of the current properties file URL.
@@ -44,6 +58,9 @@ public class ArgumentsLoader {
 	 * then the resolved value is -repository=http://download.eclipse.org/eclipse/updates */
 	public static final String THIS_PROPERTIES_FILE_URL_SERVER = "this.properties.server";
 
+	/** The maximum number of properties files fetched at the same time. */
+	private static final int MAX_LOAD_THREADS = 4;
+
 	public static InputStream loadURL(String uri) throws CoreException {
 		return internalLoadURL(uri).inputStream;
 	}
@@ -55,16 +72,11 @@ public class ArgumentsLoader {
 				ur = new File(".").toURI().resolve(ur);
 			}
 			URL url = ur.toURL();
-			String auth = url.getUserInfo();
-			if (auth != null && 
-					(url.getProtocol().equals("http") ||
-							url.getProtocol().equals("https"))) {
-				String authEnc = Base64.encode(auth.getBytes());
-				URLConnection urlConnection = url.openConnection();
-				urlConnection.setRequestProperty("Authorization", "Basic " + authEnc);
-				inStream = urlConnection.getInputStream();
+			ContentStore store = ContentStore.getDefault();
+			if (store != null && ContentStore.isStored(url.toString())) {
+				inStream = openThroughStore(store, url);
 			} else {
-				inStream = url.openStream();
+				inStream = openURL(url);
 			}
 			URLAndInputStream res = new URLAndInputStream(url, inStream);
 			return res;
@@ -75,12 +87,55 @@ public class ArgumentsLoader {
 		}
 	}
 	
+	private static InputStream openURL(URL url) throws IOException {
+		String auth = url.getUserInfo();
+		if (auth != null && 
+				(url.getProtocol().equals("http") ||
+						url.getProtocol().equals("https"))) {
+			String authEnc = Base64.encode(auth.getBytes());
+			URLConnection urlConnection = url.openConnection();
+			urlConnection.setRequestProperty("Authorization", "Basic " + authEnc);
+			return urlConnection.getInputStream();
+		} else {
+			return url.openStream();
+		}
+	}
+	
+	/**
+	 * When offline the content is read from the store only.
+	 * Otherwise it is downloaded and copied in the store; the copy in the store
+	 * is used when the download fails.
+	 */
+	private static InputStream openThroughStore(ContentStore store, URL url) throws IOException {
+		File stored = store.getFile(url.toString());
+		if (store.isOffline()) {
+			if (stored == null) {
+				throw new IOException("Offline: " + url + " was never downloaded in the content store");
+			}
+			return new FileInputStream(stored);
+		}
+		try {
+			return store.tee(url.toString(), openURL(url));
+		} catch (IOException e) {
+			if (stored == null) {
+				throw e;
+			}
+			LogHelper.log(new Status(IStatus.WARNING, BUNDLE_ID, "Unable to load " + url + ": using the copy in the content store.", e));
+			return new FileInputStream(stored);
+		}
+	}
+	
+	/**
+	 * @param uri
+	 * @return The properties loaded from the uri.
+	 */
 	public static Properties loadProperties(String uri) throws CoreException {
 		Properties p = new Properties();
 		InputStream inStream = null;
 		try {
 			URLAndInputStream r = internalLoadURL(uri);
-			p.load(r.inputStream);
+			inStream = r.inputStream;
+			p.load(inStream);
 			p = resolvePropertiesValues(p, r.url);
 //			System.err.println("Loading props " + ur.toString());
 		} catch (Throwable t) {
@@ -92,6 +147,57 @@ public class ArgumentsLoader {
 		return p;
 	}
 	
+	/**
+	 * Fetches the properties files concurrently on up to MAX_LOAD_THREADS threads;
+	 * a uri listed several times is fetched once.
+	 * @param uris
+	 * @return The properties indexed by their uri.
+	 * @throws CoreException The exception of the first uri in the collection that could not be loaded.
+	 */
+	public static Map<String, Properties> loadProperties(Collection<String> uris) throws CoreException {
+		Map<String, Properties> res = new LinkedHashMap<String, Properties>();
+		LinkedHashSet<String> toLoad = new LinkedHashSet<String>(uris);
+		Map<String, Properties> loaded = new HashMap<String, Properties>();
+		if (toLoad.size() > 1) {
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(toLoad.size(), MAX_LOAD_THREADS));
+			try {
+				Map<String, Future<Properties>> loads = new LinkedHashMap<String, Future<Properties>>();
+				for (final String uri : toLoad) {
+					loads.put(uri, executor.submit(new Callable<Properties>() {
+						public Properties call() throws CoreException {
+							return loadProperties(uri);
+						}
+					}));
+				}
+				for (Entry<String, Future<Properties>> load : loads.entrySet()) {
+					try {
+						loaded.put(load.getKey(), load.getValue().get());
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof CoreException) {
+							throw (CoreException) e.getCause();
+						}
+						throw new ProvisionException("Unable to load the properties", e.getCause());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new ProvisionException("Interrupted while loading the properties", e);
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		} else {
+			for (String uri : toLoad) {
+				loaded.put(uri, loadProperties(uri));
+			}
+		}
+		for (String uri : uris) {
+			Properties p = new Properties();
+			p.putAll(loaded.get(uri));
+			res.put(uri, p);
+		}
+		return res;
+	}
+
 	/**
 	 * @param props The properties where the values that contain system properties should be resolved.
 	 * @param propFile The URL of the properties currently loaded which value is the value of the property
@@ -99,11 +205,12 @@ public class ArgumentsLoader {
 	 * @return
 	 */
 	private static Properties resolvePropertiesValues(Properties props, URL propFile) {
+		PropertyValueResolver resolver = new PropertyValueResolver(propFile);
 		Properties n = new Properties();
 		for (Entry en : props.entrySet()) {
 			String key = (String)en.getKey();
 		    String value = (String)en.getValue();
-		    value = resolvePropertyValue(value, propFile);
+		    value = resolver.resolve(value);
 		    n.put(key, value);
 		}
 		return n;
@@ -112,58 +219,15 @@ public class ArgumentsLoader {
 	/**
 	 * Substitute the ${sysprop} by their actual system property.
 	 * ${sysprop,defaultvalue} will use 'defaultvalue' as the value if no sysprop is defined.
-	 * Not the most efficient code but we are shooting for simplicity and speed of development here.
+	 * The default value can contain placeholders too: ${sysprop,${othersysprop,defaultvalue}}
 	 * Also do the very special this.properties.server and replace it by the server in the URL propFile
 	 * 
 	 * @param value
 	 * @return
+	 * @see PropertyValueResolver
 	 */
 	public static String resolvePropertyValue(String value, URL propFile) {
-		
-		int ind = value.indexOf("${");
-		if (ind == -1) {
-			return value;
-		}
-		int ind2 = value.indexOf('}', ind);
-		if (ind2 == -1) {
-			return value;
-		}
-		String sysprop = value.substring(ind+2, ind2);
-		String defaultValue = null;
-		int comma = sysprop.indexOf(',');
-		if (comma != -1 && comma+1 != sysprop.length()) {
-			defaultValue = sysprop.substring(comma+1);
-			defaultValue = resolvePropertyValue(defaultValue, propFile);
-			sysprop = sysprop.substring(0,comma);
-		} else {
-			defaultValue = "${" + sysprop + "}";
-		}
-		
-		String v = null;
-		if (THIS_PROPERTIES_FILE_URL_SERVER.equals(sysprop)) {
-			v = THIS_PROPERTIES_FILE_URL_SERVER;
-		} else {
-			v = System.getProperty(sysprop);
-			if (v == null && THIS_PROPERTIES_FILE_URL_SERVER.equals(defaultValue)) {
-				v = THIS_PROPERTIES_FILE_URL_SERVER;
-			}
-		}
-		
-		if (propFile != null && THIS_PROPERTIES_FILE_URL_SERVER.equals(v)) {
-			v = propFile.toString();
-			int index = v.indexOf('/', propFile.getProtocol().length()+3);
-			if (index != -1) {
-				v = v.substring(0, index);
-			}
-		}
-		
-		String reminder = value.length() > ind2 + 1 ? value.substring(ind2+1) : "";
-		reminder = resolvePropertyValue(reminder, propFile);
-		if (v != null) {
-			return value.substring(0, ind) + v + reminder;
-		} else {
-			return value.substring(0, ind) + defaultValue + reminder;
-		}
+		return new PropertyValueResolver(propFile).resolve(value);
 	}
 	
 	/**
@@ -234,6 +298,8 @@ public class ArgumentsLoader {
 				}
 			}
 		}
+		//fetch all the properties files at once.
+		Map<String,Properties> loaded = ArgumentsLoader.loadProperties(props.values());
 		//the props that are overriding the command-line
 		for (Entry<String,String> entry : props.entrySet()) {
 			String propsArg = entry.getKey();
@@ -241,7 +307,7 @@ public class ArgumentsLoader {
 			int num = parseNumber(propsArg);
 			if (num > 10) {
 //				System.err.println(uris + " overriding the cmd-line. " + num);
-				Properties propsLoaded = ArgumentsLoader.loadProperties(uris);
+				Properties propsLoaded = loaded.get(uris);
 				for (Object key : propsLoaded.keySet()) {
 					String keyStr = (String)key;
 					String value = propsLoaded.getProperty(keyStr);
@@ -258,7 +324,7 @@ public class ArgumentsLoader {
 			String uris = entry.getValue();
 			int num = parseNumber(propsArg);
 			if (num <= 10) {
-				Properties propsLoaded = ArgumentsLoader.loadProperties(uris);
+				Properties propsLoaded = loaded.get(uris);
 				for (Object key : propsLoaded.keySet()) {
 					String keyStr = (String)key;
 					if (!cmdArgs.containsKey(keyStr)) {
@@ -268,11 +334,12 @@ public class ArgumentsLoader {
 				}
 			}
 		}
+		PropertyValueResolver resolver = new PropertyValueResolver(null);
 		args = new ArrayList<String>(cmdArgs.size()*2);
 		for (Entry<String,String> en : cmdArgs.entrySet()) {
 			args.add(en.getKey());
 			if (en.getValue().length() != 0) {
-				args.add(ArgumentsLoader.resolvePropertyValue(en.getValue(), null));
+				args.add(resolver.resolve(en.getValue()));
 			}
 		}
 		return args;
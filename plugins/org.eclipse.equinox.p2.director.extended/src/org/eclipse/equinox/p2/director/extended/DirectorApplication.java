@@ -23,8 +23,13 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.ecf.core.util.Base64;
+import org.eclipse.ecf.provider.filetransfer.httpclient.extended.ContentStore;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.director.app.Activator;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.director.extended.internal.ForkedDirectorApplication;
 
@@ -67,12 +72,39 @@ import org.eclipse.equinox.p2.director.extended.internal.ForkedDirectorApplicati
  * <li>archive: renames the existing destination folder with a timestamp of the installation</li>
  * </ul>
  * </p>
+ * <p>
+ * The remote properties files and repositories can be resolved from a local content store:
+ * <ul>
+ * <li>-contentStore &lt;folder&gt;: the files downloaded are copied in that store
+ * and the store is used when a properties file cannot be downloaded</li>
+ * <li>-offline: the files are resolved from the store only (by default ${user.home}/.p2/content-store);
+ * nothing is requested on the network.</li>
+ * </ul>
+ * </p>
  * 
  * @author hmalphettes
  */
 public class DirectorApplication extends ForkedDirectorApplication {
 
 	public static String APP_ID = "org.eclipse.equinox.p2.director.extended";
+	
+	public static final String OPTION_OFFLINE = "-offline";
+	public static final String OPTION_CONTENT_STORE = "-contentStore";
+	
+	private boolean offline = false;
+	private File contentStoreFolder;
+	
+	public Object run(String[] args) {
+		try {
+			return super.run(args);
+		} finally {
+			try {
+				ContentStore.close();
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to close the content store", e));
+			}
+		}
+	}
 		
 	public void processArguments(String[] args) throws CoreException {
 		if (args == null) {
@@ -80,7 +112,16 @@ public class DirectorApplication extends ForkedDirectorApplication {
 			return;
 		}
 
+		//the store must be ready before the properties files are loaded.
+		ArrayList<String> cmdArgs = new ArrayList<String>(args.length);
+		for (String a : args) {
+			cmdArgs.add(a);
+		}
+		if (processContentStoreArguments(cmdArgs)) {
+			args = cmdArgs.toArray(new String[cmdArgs.size()]);
+		}
 		ArrayList<String> newArgs = ArgumentsLoader.loadArgumentsInPropertiesFiles(args);
+		processContentStoreArguments(newArgs);
 		ArgumentsLoader.addComputedOsArchWsArguments(newArgs);
 		
 		args = newArgs.toArray(new String[newArgs.size()]);
@@ -93,5 +134,41 @@ public class DirectorApplication extends ForkedDirectorApplication {
 		System.err.println(sb);
 		super.processArguments(args);
 	}
+	
+	/**
+	 * Removes the -offline and -contentStore arguments and configures the content store accordingly.
+	 * @return true if some arguments were removed.
+	 */
+	private boolean processContentStoreArguments(ArrayList<String> args) throws CoreException {
+		boolean found = false;
+		for (int i = 0; i < args.size(); i++) {
+			String opt = args.get(i);
+			if (OPTION_OFFLINE.equalsIgnoreCase(opt)) {
+				offline = true;
+				args.remove(i--);
+				found = true;
+			} else if (OPTION_CONTENT_STORE.equalsIgnoreCase(opt)) {
+				if (i + 1 >= args.size()) {
+					throw new ProvisionException("Missing the folder of the option " + opt);
+				}
+				contentStoreFolder = new File(args.get(i + 1));
+				args.remove(i + 1);
+				args.remove(i--);
+				found = true;
+			}
+		}
+		if (found) {
+			File folder = contentStoreFolder;
+			if (folder == null) {
+				folder = new File(System.getProperty("user.home"), ".p2/content-store");
+			}
+			try {
+				ContentStore.configure(folder, offline);
+			} catch (IOException e) {
+				throw new ProvisionException("Unable to open the content store " + folder, e);
+			}
+		}
+		return found;
+	}
 			
 }
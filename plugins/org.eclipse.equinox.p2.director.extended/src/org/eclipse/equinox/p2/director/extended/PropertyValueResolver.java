@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Substitutes the ${sysprop} by their actual system property.
+ * <p>
+ * ${sysprop,defaultvalue} uses 'defaultvalue' as the value if no sysprop is defined;
+ * the default value may itself contain placeholders: ${a,${b,c}}.
+ * A placeholder which system property is not defined and that has no default value is left as is.
+ * ${this.properties.server} or a default value equal to this.properties.server
+ * is replaced by the server of the properties file URL.
+ * </p>
+ * <p>
+ * The placeholders are matched in a single pass with a stack of the opening positions,
+ * then the value is resolved left to right into a single buffer.
+ * The values of the system properties are resolved as well; they are looked up once
+ * per resolver and a property that refers to itself is left unresolved.
+ * </p>
+ */
+class PropertyValueResolver {
+
+	private final URL propFile;
+	private String server;
+	/** the resolved values of the system properties already looked up. */
+	private final Map<String, String> resolvedSysprops = new HashMap<String, String>();
+	/** the system properties being resolved: to detect cycles. */
+	private final Set<String> resolving = new HashSet<String>();
+
+	/**
+	 * @param propFile The URL of the properties currently loaded which value is the value of the property
+	 * this.properties.server or null.
+	 */
+	PropertyValueResolver(URL propFile) {
+		this.propFile = propFile;
+	}
+
+	String resolve(String value) {
+		int start = value.indexOf("${"); //$NON-NLS-1$
+		if (start == -1) {
+			return value;
+		}
+		StringBuilder out = new StringBuilder(value.length() + 16);
+		out.append(value, 0, start);
+		resolve(value, matchPlaceholders(value), start, value.length(), out);
+		return out.toString();
+	}
+
+	/**
+	 * @return for each position of a '${', the position of the matching '}' or -1.
+	 */
+	private static int[] matchPlaceholders(String value) {
+		int len = value.length();
+		int[] match = new int[len];
+		Arrays.fill(match, -1);
+		int[] stack = new int[8];
+		int depth = 0;
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			if (c == '$' && i + 1 < len && value.charAt(i + 1) == '{') {
+				if (depth == stack.length) {
+					int[] larger = new int[depth * 2];
+					System.arraycopy(stack, 0, larger, 0, depth);
+					stack = larger;
+				}
+				stack[depth++] = i;
+				i++;
+			} else if (c == '}' && depth != 0) {
+				match[stack[--depth]] = i;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Resolves value[from,to[ into out.
+	 */
+	private void resolve(String value, int[] match, int from, int to, StringBuilder out) {
+		int i = from;
+		while (i < to) {
+			int open = value.indexOf("${", i); //$NON-NLS-1$
+			if (open == -1 || open >= to) {
+				out.append(value, i, to);
+				return;
+			}
+			out.append(value, i, open);
+			int close = match[open];
+			if (close == -1 || close >= to) {
+				//not a placeholder.
+				out.append("${"); //$NON-NLS-1$
+				i = open + 2;
+				continue;
+			}
+			resolvePlaceholder(value, match, open, close, out);
+			i = close + 1;
+		}
+	}
+
+	/**
+	 * Resolves the placeholder value[open,close] into out.
+	 */
+	private void resolvePlaceholder(String value, int[] match, int open, int close, StringBuilder out) {
+		int contentStart = open + 2;
+		int comma = -1;
+		for (int k = contentStart; k < close; k++) {
+			char c = value.charAt(k);
+			if (c == ',') {
+				comma = k;
+				break;
+			}
+			if (c == '$' && match[k] != -1) {
+				k = match[k];
+			}
+		}
+		boolean hasDefault = comma != -1 && comma + 1 != close;
+		String sysprop = hasDefault
+				? resolveRange(value, match, contentStart, comma)
+				: resolveRange(value, match, contentStart, close);
+
+		String v;
+		String defaultValue = null;
+		if (ArgumentsLoader.THIS_PROPERTIES_FILE_URL_SERVER.equals(sysprop)) {
+			v = ArgumentsLoader.THIS_PROPERTIES_FILE_URL_SERVER;
+		} else {
+			v = getSysprop(sysprop);
+			if (v == null && hasDefault) {
+				defaultValue = resolveRange(value, match, comma + 1, close);
+				if (ArgumentsLoader.THIS_PROPERTIES_FILE_URL_SERVER.equals(defaultValue)) {
+					v = ArgumentsLoader.THIS_PROPERTIES_FILE_URL_SERVER;
+				}
+			}
+		}
+		if (propFile != null && ArgumentsLoader.THIS_PROPERTIES_FILE_URL_SERVER.equals(v)) {
+			v = getServer();
+		}
+		if (v != null) {
+			out.append(v);
+		} else if (defaultValue != null) {
+			out.append(defaultValue);
+		} else {
+			out.append(value, open, close + 1);
+		}
+	}
+
+	private String resolveRange(String value, int[] match, int from, int to) {
+		if (value.indexOf("${", from) == -1) { //$NON-NLS-1$
+			return value.substring(from, to);
+		}
+		StringBuilder sb = new StringBuilder(to - from);
+		resolve(value, match, from, to, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * @return The resolved value of the system property or null if it is not defined.
+	 */
+	private String getSysprop(String sysprop) {
+		String v = resolvedSysprops.get(sysprop);
+		if (v != null || resolvedSysprops.containsKey(sysprop)) {
+			return v;
+		}
+		v = System.getProperty(sysprop);
+		if (v != null && v.indexOf("${") != -1) { //$NON-NLS-1$
+			if (!resolving.add(sysprop)) {
+				//cycle: leave it unresolved.
+				return v;
+			}
+			try {
+				v = resolve(v);
+			} finally {
+				resolving.remove(sysprop);
+			}
+		}
+		resolvedSysprops.put(sysprop, v);
+		return v;
+	}
+
+	private String getServer() {
+		if (server == null) {
+			String v = propFile.toString();
+			int index = v.indexOf('/', propFile.getProtocol().length() + 3);
+			server = index != -1 ? v.substring(0, index) : v;
+		}
+		return server;
+	}
+
+}
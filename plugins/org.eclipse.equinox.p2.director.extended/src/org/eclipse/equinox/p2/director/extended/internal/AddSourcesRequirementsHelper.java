@@ -11,7 +11,12 @@
 package org.eclipse.equinox.p2.director.extended.internal;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -57,9 +62,14 @@ public class AddSourcesRequirementsHelper {
 	 */
 	private static final String SOURCE_IU_ID = "org.eclipse.pde.core.target.source.bundles"; //$NON-NLS-1$
 
+	/** Selects all the source bundles by naming convention. */
+	private static final IQuery<IInstallableUnit> SOURCE_BUNDLES_QUERY = QueryUtil.createMatchQuery("id ~= /*.source/"); //$NON-NLS-1$
+
     
 	/** run a second pass of the planner to add in the source bundles for everything that's
 	 * in the current profile.
+	 * @return The plan or null when the current source IU already requires the source bundles
+	 * of all the bundles in the profile: there is nothing to plan.
 	 */
 	public static IProvisioningPlan planInSourceBundles(IProfile profile, ProvisioningContext context, IProgressMonitor monitor,
 			IProfileRegistry profileRegistry, IEngine engine, IPlanner planner) throws CoreException {
@@ -72,14 +82,13 @@ public class AddSourcesRequirementsHelper {
 		// create an IU that optionally and greedily requires the related source bundles.
 		// Completely replace any source IU that may already be in place
 		IInstallableUnit currentSourceIU = getCurrentSourceIU(profile);
-
-		// determine the new version number.  start at 1
-		Version sourceVersion = Version.createOSGi(1, 0, 0);
-		if (currentSourceIU != null) {
-			Integer major = (Integer) currentSourceIU.getVersion().getSegment(0);
-			sourceVersion = Version.createOSGi(major.intValue() + 1, 0, 0);
+		Set<String> availableSources = getAvailableSources(context, profile, new SubProgressMonitor(subMonitor, 10));
+		IInstallableUnit sourceIU = createNextSourceIU(profile, currentSourceIU, availableSources);
+		if (sourceIU == null) {
+			// the bundles did not change: no need to run the planner.
+			subMonitor.done();
+			return null;
 		}
-		IInstallableUnit sourceIU = createSourceIU(profile, sourceVersion);
 
 		// call the planner again to add in the new source IU and all available source bundles
 //		IPlanner planner = P2TargetUtils.getPlanner();
@@ -120,31 +129,135 @@ public class AddSourcesRequirementsHelper {
 	}
 
 
-	// Create and return an IU that has optional and greedy requirements on all source bundles
-	// related to bundle IUs in the given queryable. 
 	/**
-	 * Creates and returns an IU that has optional and greedy requirements on all source bundles
+	 * Adds to a request the source IU for the bundles that will be installed once
+	 * the request is executed; this way a single plan installs the bundles and their sources.
+	 * @param request The request to complete
+	 * @param profile The profile the request applies to
+	 * @param futureState The IUs installed in the profile once the request is executed:
+	 * typically the future state of the plan of the request.
+	 * @param context The context of the request where the source bundles are looked up
+	 * @return true if the request was changed; false if the source IU currently installed is up to date.
+	 */
+	public static boolean addSourceIU(IProfileChangeRequest request, IProfile profile, IQueryable futureState,
+			ProvisioningContext context, IProgressMonitor monitor) {
+		IInstallableUnit currentSourceIU = getCurrentSourceIU(profile);
+		Set<String> availableSources = getAvailableSources(context, futureState, monitor);
+		IInstallableUnit sourceIU = createNextSourceIU(futureState, currentSourceIU, availableSources);
+		if (sourceIU == null) {
+			return false;
+		}
+		if (currentSourceIU != null)
+			request.remove(currentSourceIU);
+		request.add(sourceIU);
+		return true;
+	}
+
+	/**
+	 * @param queryable The IUs which bundles need their sources
+	 * @param currentSourceIU The source IU currently installed or null
+	 * @param availableSources The source bundles that can be installed or null to require all of them
+	 * @return The source IU that replaces the current one or null if the current one has the same requirements.
+	 * Package visible for the benchmarks.
+	 */
+	static IInstallableUnit createNextSourceIU(IQueryable queryable, IInstallableUnit currentSourceIU, Set<String> availableSources) {
+		List<IRequirement> requirements = createSourceRequirements(queryable, currentSourceIU, availableSources);
+		if (currentSourceIU != null && hasSameRequirements(currentSourceIU, requirements)) {
+			return null;
+		}
+		// determine the new version number.  start at 1
+		Version sourceVersion = Version.createOSGi(1, 0, 0);
+		if (currentSourceIU != null) {
+			Version currentVersion = currentSourceIU.getVersion();
+			//a source IU with a version that is not an OSGi version is replaced by the version 1.
+			if (currentVersion.getSegmentCount() > 0 && currentVersion.getSegment(0) instanceof Integer) {
+				int major = ((Integer) currentVersion.getSegment(0)).intValue();
+				sourceVersion = Version.createOSGi(major + 1, 0, 0);
+			}
+		}
+		return createSourceIU(requirements, sourceVersion);
+	}
+
+	/**
+	 * Computes the optional and greedy requirements on all source bundles
 	 * related to bundle IUs in the given queryable.
+	 * The requirements already held by the current source IU are reused as they are.
 	 * @param queryable location to search for source bundle IUs
-	 * @param iuVersion version to set on the returned installable unit
-	 * @return a new installable unit with requirements on the available source IUs
+	 * @param currentSourceIU the source IU currently installed or null
+	 * @param availableSources the source bundles that can be installed or null to require all of them
+	 * @return the requirements on the source IUs
 	 */
-	private static IInstallableUnit createSourceIU(IQueryable queryable, Version iuVersion) {
+	private static List<IRequirement> createSourceRequirements(IQueryable queryable, IInstallableUnit currentSourceIU, Set<String> availableSources) {
+		Map<IRequirement, IRequirement> current = new HashMap<IRequirement, IRequirement>();
+		if (currentSourceIU != null) {
+			for (IRequirement req : currentSourceIU.getRequirements()) {
+				current.put(req, req);
+			}
+		}
 		// compute the set of source bundles we could possibly need for the bundles in the profile
 		IRequirement bundleRequirement = MetadataFactory.createRequirement("org.eclipse.equinox.p2.eclipse.type", "bundle", null, null, false, false, false); //$NON-NLS-1$ //$NON-NLS-2$
 		IQueryResult profileIUs = queryable.query(QueryUtil.createIUAnyQuery(), null);
-		ArrayList requirements = new ArrayList();
+		List<IRequirement> requirements = new ArrayList<IRequirement>();
 		for (Iterator i = profileIUs.iterator(); i.hasNext();) {
 			IInstallableUnit profileIU = (IInstallableUnit) i.next();
 			if (profileIU.satisfies(bundleRequirement)) {
 				String id = profileIU.getId() + ".source"; //$NON-NLS-1$
 				Version version = profileIU.getVersion();
+				if (availableSources != null && !availableSources.contains(toKey(id, version))) {
+					// no repository has it: the planner would only discard the requirement.
+					continue;
+				}
 				VersionRange range = new VersionRange(version, true, version, true);
 				IRequirement sourceRequirement = MetadataFactory.createRequirement("osgi.bundle", id, range, null, true, false, true); //$NON-NLS-1$
-				requirements.add(sourceRequirement);
+				IRequirement existing = current.get(sourceRequirement);
+				requirements.add(existing != null ? existing : sourceRequirement);
 			}
 		}
+		return requirements;
+	}
 
+	/**
+	 * Queries the metadata of the context and the given queryable once for all the source bundles.
+	 * @param context The context of the request or null
+	 * @param installed The IUs installed or about to be installed: their source bundles remain available.
+	 * @return The id/version of the source bundles available or null if the context is unknown.
+	 */
+	private static Set<String> getAvailableSources(ProvisioningContext context, IQueryable installed, IProgressMonitor monitor) {
+		if (context == null) {
+			return null;
+		}
+		Set<String> available = new HashSet<String>();
+		IQueryable<IInstallableUnit> metadata = context.getMetadata(monitor);
+		for (Iterator<IInstallableUnit> i = metadata.query(SOURCE_BUNDLES_QUERY, monitor).iterator(); i.hasNext();) {
+			IInstallableUnit iu = i.next();
+			available.add(toKey(iu.getId(), iu.getVersion()));
+		}
+		for (Iterator i = installed.query(SOURCE_BUNDLES_QUERY, monitor).iterator(); i.hasNext();) {
+			IInstallableUnit iu = (IInstallableUnit) i.next();
+			available.add(toKey(iu.getId(), iu.getVersion()));
+		}
+		return available;
+	}
+
+	private static String toKey(String id, Version version) {
+		return id + '/' + version;
+	}
+
+	/**
+	 * @return true if the source IU has exactly those requirements.
+	 */
+	private static boolean hasSameRequirements(IInstallableUnit sourceIU, List<IRequirement> requirements) {
+		HashSet<IRequirement> current = new HashSet<IRequirement>(sourceIU.getRequirements());
+		return current.size() == requirements.size() && current.containsAll(requirements);
+	}
+
+	/**
+	 * Creates and returns an IU that has the given requirements on the source bundles.
+	 * @param requirements the requirements on the source IUs
+	 * @param iuVersion version to set on the returned installable unit
+	 * @return a new installable unit with requirements on the available source IUs
+	 */
+	private static IInstallableUnit createSourceIU(List<IRequirement> requirements, Version iuVersion) {
 		InstallableUnitDescription sourceDescription = new MetadataFactory.InstallableUnitDescription();
 		sourceDescription.setSingleton(true);
 		sourceDescription.setId(SOURCE_IU_ID);
@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EventObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.ecf.provider.filetransfer.httpclient.extended.XHttpClientMetrics;
+import org.eclipse.equinox.internal.p2.engine.PhaseEvent;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProvisioningListener;
+
+/**
+ * Timers and counters of a run written to a file at the end of the run.
+ * <p>
+ * A timer accumulates the number of times a phase ran and its total duration;
+ * a counter accumulates a quantity. The engine phases are timed by listening
+ * to the phase events of the provisioning event bus.
+ * </p>
+ * <p>
+ * p2 only publishes the phase events as the internal PhaseEvent of the engine bundle
+ * and has no public API to time the phases of a plan. The manifest imports its package
+ * optionally: when a strict resolver keeps it from this bundle the engine phases are
+ * not timed and the other metrics are still recorded.
+ * </p>
+ * <p>
+ * The per host metrics of the transfers are written with them.
+ * The file is written as JSON when its name ends with .json and in the Prometheus
+ * text format otherwise.
+ * </p>
+ */
+public class DirectorMetrics {
+
+	private static volatile DirectorMetrics DEFAULT;
+
+	/**
+	 * @return The metrics of the current run or null when they are not recorded.
+	 */
+	public static DirectorMetrics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Makes these metrics the ones of the current run: the transfers count their bytes in them
+	 * and the per host metrics of the transfers start from zero.
+	 * @param metrics The metrics of the run or null when the run ends.
+	 */
+	public static void setDefault(DirectorMetrics metrics) {
+		if (metrics != null) {
+			XHttpClientMetrics.getDefault().reset();
+		}
+		DEFAULT = metrics;
+	}
+
+	/**
+	 * Adds to a counter of the current run if the metrics are recorded.
+	 */
+	public static void count(String counter, long delta) {
+		DirectorMetrics metrics = DEFAULT;
+		if (metrics != null) {
+			metrics.add(counter, delta);
+		}
+	}
+
+	private final File file;
+	private final long created = System.nanoTime();
+	/** name -> {count, total nanos} */
+	private final Map<String, long[]> timers = new LinkedHashMap<String, long[]>();
+	private final Map<String, long[]> counters = new LinkedHashMap<String, long[]>();
+	private final Map<String, long[]> gauges = new LinkedHashMap<String, long[]>();
+	/** phase id -> start of the engine phase in progress */
+	private final Map<String, Long> phaseStarts = new HashMap<String, Long>();
+	private final SynchronousProvisioningListener phaseListener = new SynchronousProvisioningListener() {
+		public void notify(EventObject o) {
+			if (o instanceof PhaseEvent) {
+				PhaseEvent event = (PhaseEvent) o;
+				if (event.getType() == PhaseEvent.TYPE_START) {
+					synchronized (phaseStarts) {
+						phaseStarts.put(event.getPhaseId(), Long.valueOf(System.nanoTime()));
+					}
+				} else if (event.getType() == PhaseEvent.TYPE_END) {
+					Long start;
+					synchronized (phaseStarts) {
+						start = phaseStarts.remove(event.getPhaseId());
+					}
+					if (start != null) {
+						stop("engine." + event.getPhaseId(), start.longValue()); //$NON-NLS-1$
+					}
+				}
+			}
+		}
+	};
+	private IProvisioningEventBus bus;
+
+	/**
+	 * Creates the metrics of the current run.
+	 * @param file The file where they are written at the end of the run.
+	 */
+	public DirectorMetrics(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Times the engine phases executed by the agent of this event bus.
+	 */
+	public void listen(IProvisioningEventBus eventBus) {
+		if (eventBus != null && isPhaseEventVisible()) {
+			bus = eventBus;
+			bus.addListener(phaseListener);
+		}
+	}
+
+	private static boolean isPhaseEventVisible() {
+		try {
+			return PhaseEvent.class != null;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return The start of a timed section to pass to {@link #stop(String, long)}
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the end of a timed section.
+	 * @param timer The name of the timer
+	 * @param start The value returned by {@link #start()}
+	 */
+	public synchronized void stop(String timer, long start) {
+		long elapsed = System.nanoTime() - start;
+		long[] t = timers.get(timer);
+		if (t == null) {
+			t = new long[2];
+			timers.put(timer, t);
+		}
+		t[0]++;
+		t[1] += elapsed;
+	}
+
+	public synchronized void add(String counter, long delta) {
+		long[] c = counters.get(counter);
+		if (c == null) {
+			c = new long[1];
+			counters.put(counter, c);
+		}
+		c[0] += delta;
+	}
+
+	/**
+	 * Sets a value that is not accumulated, the outcome of the run for example.
+	 */
+	public synchronized void set(String gauge, long value) {
+		gauges.put(gauge, new long[] {value});
+	}
+
+	/**
+	 * @return A stream that counts the bytes read and adds them to a counter once, when it is closed.
+	 */
+	public InputStream countBytes(InputStream in, final String counter) {
+		return new FilterInputStream(in) {
+			private long count;
+			private boolean closed;
+
+			public int read() throws IOException {
+				int b = super.read();
+				if (b != -1) {
+					count++;
+				}
+				return b;
+			}
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					count += n;
+				}
+				return n;
+			}
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if (!closed) {
+						closed = true;
+						add(counter, count);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Stops recording: writes the file and stops listening to the engine.
+	 */
+	public void close() throws IOException {
+		if (bus != null) {
+			bus.removeListener(phaseListener);
+			bus = null;
+		}
+		stop("total", created); //$NON-NLS-1$
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+		try {
+			w.write(file.getName().endsWith(".json") ? toJSON() : toPrometheus()); //$NON-NLS-1$
+		} finally {
+			w.close();
+		}
+	}
+
+	public synchronized String toJSON() {
+		StringBuilder sb = new StringBuilder("{\n  \"timers\": {"); //$NON-NLS-1$
+		boolean first = true;
+		for (Entry<String, long[]> e : timers.entrySet()) {
+			sb.append(first ? "\n    \"" : ",\n    \"").append(e.getKey()).append("\": {\"count\": ").append(e.getValue()[0]); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			sb.append(", \"ms\": ").append(e.getValue()[1] / 1000000).append('}'); //$NON-NLS-1$
+			first = false;
+		}
+		sb.append("\n  },\n  \"counters\": {"); //$NON-NLS-1$
+		first = true;
+		for (Entry<String, long[]> e : counters.entrySet()) {
+			sb.append(first ? "\n    \"" : ",\n    \"").append(e.getKey()).append("\": ").append(e.getValue()[0]); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			first = false;
+		}
+		sb.append("\n  },\n  \"gauges\": {"); //$NON-NLS-1$
+		first = true;
+		for (Entry<String, long[]> e : gauges.entrySet()) {
+			sb.append(first ? "\n    \"" : ",\n    \"").append(e.getKey()).append("\": ").append(e.getValue()[0]); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			first = false;
+		}
+		sb.append("\n  },\n  \"transfers\": ").append(XHttpClientMetrics.getDefault().toJSON()); //$NON-NLS-1$
+		sb.append("\n}\n"); //$NON-NLS-1$
+		return sb.toString();
+	}
+
+	public synchronized String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# TYPE p2director_phase_seconds summary\n"); //$NON-NLS-1$
+		for (Entry<String, long[]> e : timers.entrySet()) {
+			sb.append("p2director_phase_seconds_count{phase=\"").append(e.getKey()).append("\"} ").append(e.getValue()[0]).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+			sb.append("p2director_phase_seconds_sum{phase=\"").append(e.getKey()).append("\"} ").append(e.getValue()[1] / 1e9).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		for (Entry<String, long[]> e : counters.entrySet()) {
+			String name = "p2director_" + e.getKey().replaceAll("[^a-zA-Z0-9_]", "_") + "_total"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			sb.append("# TYPE ").append(name).append(" counter\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			sb.append(name).append(' ').append(e.getValue()[0]).append('\n');
+		}
+		for (Entry<String, long[]> e : gauges.entrySet()) {
+			String name = "p2director_" + e.getKey().replaceAll("[^a-zA-Z0-9_]", "_"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			sb.append("# TYPE ").append(name).append(" gauge\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			sb.append(name).append(' ').append(e.getValue()[0]).append('\n');
+		}
+		sb.append(XHttpClientMetrics.getDefault().toPrometheus());
+		return sb.toString();
+	}
+
+}
@@ -34,6 +34,12 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
@@ -53,6 +59,7 @@ import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
 import org.eclipse.equinox.internal.p2.director.app.Activator;
 import org.eclipse.equinox.internal.p2.director.app.ILog;
 import org.eclipse.equinox.internal.p2.director.app.Messages;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.director.IDirector;
 import org.eclipse.equinox.internal.provisional.p2.director.PlanExecutionHelper;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -189,6 +196,10 @@ public class ForkedDirectorApplication implements IApplication {
 
 	//added here.
 	private static final CommandLineOption OPTION_ADD_SOURCES = new CommandLineOption(new String[] {"-addSources"}, null, "download source bundles"); //$NON-NLS-1$
+	private static final CommandLineOption OPTION_MERGE_SOURCES = new CommandLineOption(new String[] {"-mergeSources"}, null, "download source bundles within the same plan as the runtime bundles"); //$NON-NLS-1$ //$NON-NLS-2$
+	private static final CommandLineOption OPTION_METADATA_CACHE = new CommandLineOption(new String[] {"-metadataCache"}, Messages.Help_lt_path_gt, "folder where the remote metadata repositories are cached between runs"); //$NON-NLS-1$ //$NON-NLS-2$
+	private static final CommandLineOption OPTION_LOAD_THREADS = new CommandLineOption(new String[] {"-loadThreads"}, "<n>", "number of threads used to load the repositories concurrently; 1 loads them one after the other"); //$NON-NLS-1$ //$NON-NLS-2$
+	private static final CommandLineOption OPTION_METRICS = new CommandLineOption(new String[] {"-metrics"}, Messages.Help_lt_path_gt, "file where the timings and counters of the run are written: JSON when it ends with .json, Prometheus text otherwise"); //$NON-NLS-1$ //$NON-NLS-2$
 
 	private static final Integer EXIT_ERROR = new Integer(13);
 	static private final String FLAVOR_DEFAULT = "tooling"; //$NON-NLS-1$
@@ -299,6 +310,16 @@ public class ForkedDirectorApplication implements IApplication {
 	
 	//added here:
 	private boolean addSourcesBundles = false;
+	/** true to install the source bundles with the same plan as the runtime bundles. */
+	private boolean mergeSources = false;
+	private int loadThreads = 1;
+	private File metadataCacheFolder;
+	private MetadataRepositoryCache metadataCache;
+	/** remote metadata repository location -> location of its cached copy */
+	private final Map<URI, URI> cachedMetadataLocations = new ConcurrentHashMap<URI, URI>();
+	private File metricsFile;
+	/** null unless -metrics is set */
+	private DirectorMetrics metrics;
 
 	private ProfileChangeRequest buildProvisioningRequest(IProfile profile, Collection<IInstallableUnit> installs, Collection<IInstallableUnit> uninstalls) {
 		ProfileChangeRequest request = new ProfileChangeRequest(profile);
@@ -435,6 +456,12 @@ public class ForkedDirectorApplication implements IApplication {
 		if (artifactManager == null)
 			throw new ProvisionException(Messages.Application_NoManager);
 
+		//added here:
+		if (loadThreads > 1) {
+			initializeRepositoriesConcurrently();
+			return;
+		}
+
 		int removalIdx = 0;
 		boolean anyValid = false; // do we have any valid repos or did they all fail to load?
 		artifactReposForRemoval = new URI[artifactRepositoryLocations.size()];
@@ -460,6 +487,8 @@ public class ForkedDirectorApplication implements IApplication {
 		metadataManager = (IMetadataRepositoryManager) targetAgent.getService(IMetadataRepositoryManager.SERVICE_NAME);
 		if (metadataManager == null)
 			throw new ProvisionException(Messages.Application_NoManager);
+		if (metadataCacheFolder != null)
+			metadataCache = new MetadataRepositoryCache(metadataManager, metadataCacheFolder);
 
 		removalIdx = 0;
 		anyValid = false; // do we have any valid repos or did they all fail to load?
@@ -469,8 +498,7 @@ public class ForkedDirectorApplication implements IApplication {
 			URI location = metadataRepositoryLocations.get(i);
 			try {
 				if (!metadataManager.contains(location)) {
-					metadataManager.loadRepository(location, null);
-					metadataReposForRemoval[removalIdx++] = location;
+					metadataReposForRemoval[removalIdx++] = loadMetadataRepository(location);
 				}
 				anyValid = true;
 			} catch (ProvisionException e) {
@@ -481,6 +509,146 @@ public class ForkedDirectorApplication implements IApplication {
 		if (!anyValid)
 			//all repositories failed to load
 			throw new ProvisionException(Messages.Application_NoRepositories);
+		useCachedMetadataLocations();
+	}
+
+	/**
+	 * Loads a metadata repository in the manager; through the cache when there is one.
+	 * @return The location under which the repository is now known by the manager.
+	 */
+	private URI loadMetadataRepository(URI location) throws ProvisionException {
+		if (metadataCache == null || !MetadataRepositoryCache.isCacheable(location)) {
+			metadataManager.loadRepository(location, null);
+			return location;
+		}
+		URI loaded = metadataCache.load(location, null);
+		if (!loaded.equals(location))
+			cachedMetadataLocations.put(location, loaded);
+		return loaded;
+	}
+
+	/**
+	 * Points the provisioning context and the queries at the cached copies of the
+	 * metadata repositories instead of the remote ones.
+	 */
+	private void useCachedMetadataLocations() {
+		if (cachedMetadataLocations.isEmpty())
+			return;
+		for (int i = 0; i < metadataRepositoryLocations.size(); i++) {
+			URI cached = cachedMetadataLocations.get(metadataRepositoryLocations.get(i));
+			if (cached != null)
+				metadataRepositoryLocations.set(i, cached);
+		}
+	}
+
+	/**
+	 * Loads the artifact and the metadata repositories on a bounded pool of threads.
+	 * The results are collected in the order of the locations passed on the command-line
+	 * so the repositories to remove, the logged statuses and the failure when no repository
+	 * could be loaded are the same than with the sequential loading.
+	 */
+	private void initializeRepositoriesConcurrently() throws CoreException {
+		if (metadataRepositoryLocations == null)
+			missingArgument("metadataRepository"); //$NON-NLS-1$
+
+		metadataManager = (IMetadataRepositoryManager) targetAgent.getService(IMetadataRepositoryManager.SERVICE_NAME);
+		if (metadataManager == null)
+			throw new ProvisionException(Messages.Application_NoManager);
+		if (metadataCacheFolder != null)
+			metadataCache = new MetadataRepositoryCache(metadataManager, metadataCacheFolder);
+
+		int artifactTop = artifactRepositoryLocations.size();
+		int metadataTop = metadataRepositoryLocations.size();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(loadThreads, artifactTop + metadataTop)));
+		try {
+			List<Future<URI>> artifactLoads = new ArrayList<Future<URI>>(artifactTop);
+			for (URI location : artifactRepositoryLocations)
+				artifactLoads.add(executor.submit(createArtifactRepositoryLoad(location)));
+			List<Future<URI>> metadataLoads = new ArrayList<Future<URI>>(metadataTop);
+			for (URI location : metadataRepositoryLocations)
+				metadataLoads.add(executor.submit(createMetadataRepositoryLoad(location)));
+
+			int removalIdx = 0;
+			boolean anyValid = false; // do we have any valid repos or did they all fail to load?
+			artifactReposForRemoval = new URI[artifactTop];
+			for (Future<URI> load : artifactLoads) {
+				try {
+					URI loaded = getLoadedLocation(load);
+					if (loaded != null)
+						artifactReposForRemoval[removalIdx++] = loaded;
+					anyValid = true;
+				} catch (ProvisionException e) {
+					//one of the repositories did not load
+					logStatus(e.getStatus());
+				}
+			}
+			if (!anyValid)
+				noArtifactRepositorySpecified = true;
+
+			removalIdx = 0;
+			anyValid = false;
+			metadataReposForRemoval = new URI[metadataTop];
+			for (Future<URI> load : metadataLoads) {
+				try {
+					URI loaded = getLoadedLocation(load);
+					if (loaded != null)
+						metadataReposForRemoval[removalIdx++] = loaded;
+					anyValid = true;
+				} catch (ProvisionException e) {
+					//one of the repositories did not load
+					logStatus(e.getStatus());
+				}
+			}
+			if (!anyValid)
+				//all repositories failed to load
+				throw new ProvisionException(Messages.Application_NoRepositories);
+			useCachedMetadataLocations();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return A task that loads the artifact repository and returns its location
+	 * or null when the manager already knew about it.
+	 */
+	private Callable<URI> createArtifactRepositoryLoad(final URI location) {
+		return new Callable<URI>() {
+			public URI call() throws ProvisionException {
+				if (artifactManager.contains(location))
+					return null;
+				artifactManager.loadRepository(location, null);
+				return location;
+			}
+		};
+	}
+
+	/**
+	 * @return A task that loads the metadata repository and returns its location
+	 * or null when the manager already knew about it.
+	 */
+	private Callable<URI> createMetadataRepositoryLoad(final URI location) {
+		return new Callable<URI>() {
+			public URI call() throws ProvisionException {
+				if (metadataManager.contains(location))
+					return null;
+				return loadMetadataRepository(location);
+			}
+		};
+	}
+
+	private static URI getLoadedLocation(Future<URI> load) throws ProvisionException {
+		try {
+			return load.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ProvisionException)
+				throw (ProvisionException) cause;
+			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, String.valueOf(cause.getMessage()), cause));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, String.valueOf(e.getMessage()), e));
+		}
 	}
 
 	private void initializeServices() throws CoreException {
@@ -541,6 +709,8 @@ public class ForkedDirectorApplication implements IApplication {
 			throw new ProvisionException(Messages.Missing_Engine);
 
 		targetAgent.registerService(UIServices.SERVICE_NAME, new AvoidTrustPromptService());
+		if (metrics != null)
+			metrics.listen((IProvisioningEventBus) targetAgent.getService(IProvisioningEventBus.SERVICE_NAME));
 	}
 	
 	/**
@@ -613,13 +783,17 @@ public class ForkedDirectorApplication implements IApplication {
 
 	private void performProvisioningActions() throws CoreException {
 		IProfile profile = initializeProfile();
+		long start = startTimer();
 		Collection<IInstallableUnit> installs = collectRoots(profile, rootsToInstall, true);
 		Collection<IInstallableUnit> uninstalls = collectRoots(profile, rootsToUninstall, false);
+		stopTimer("collectRoots", start); //$NON-NLS-1$
 
 		// keep this result status in case there is a problem so we can report it to the user
 		boolean wasRoaming = Boolean.valueOf(profile.getProperty(IProfile.PROP_ROAMING)).booleanValue();
 		try {
+			start = startTimer();
 			updateRoamingProperties(profile);
+			stopTimer("roaming.update", start); //$NON-NLS-1$
 			ProvisioningContext context = new ProvisioningContext(targetAgent);
 			context.setMetadataRepositories(metadataRepositoryLocations.toArray(new URI[metadataRepositoryLocations.size()]));
 			context.setArtifactRepositories(artifactRepositoryLocations.toArray(new URI[artifactRepositoryLocations.size()]));
@@ -636,18 +810,37 @@ public class ForkedDirectorApplication implements IApplication {
 			planAndExecute(profile, context, request);
 		} finally {
 			// if we were originally were set to be roaming and we changed it, change it back before we return
-			if (wasRoaming && !Boolean.valueOf(profile.getProperty(IProfile.PROP_ROAMING)).booleanValue())
+			if (wasRoaming && !Boolean.valueOf(profile.getProperty(IProfile.PROP_ROAMING)).booleanValue()) {
+				start = startTimer();
 				setRoaming(profile);
+				stopTimer("roaming.update", start); //$NON-NLS-1$
+			}
 		}
 	}
 
 	private void planAndExecute(IProfile profile, ProvisioningContext context, ProfileChangeRequest request) throws CoreException {
 		System.out.println("Retrieving the runtime bundles...");
+		long start = startTimer();
 		IProvisioningPlan result = planner.getProvisioningPlan(request, context, new NullProgressMonitor());
+		stopTimer("planner.getProvisioningPlan", start); //$NON-NLS-1$
 
 		IStatus operationStatus = result.getStatus();
 		if (!operationStatus.isOK())
 			throw new CoreException(operationStatus);
+		if (mergeSources) {
+			IProvisioningPlan merged = planWithSourceBundles(profile, context, request, result);
+			if (merged == result) {
+				System.out.println("The source bundles are up to date.");
+				System.out.println("Installing...");
+				executePlan(context, result);
+				return;
+			}
+			if (merged != null) {
+				System.out.println("Installing with the source bundles...");
+				executePlan(context, merged);
+				return;
+			}
+		}
 		System.out.println("Installing...");
 		executePlan(context, result);
 		
@@ -655,10 +848,21 @@ public class ForkedDirectorApplication implements IApplication {
 			System.out.println("Retrieving the source bundles...");
 			try {
 				IProfileRegistry profileRegistry = (IProfileRegistry) targetAgent.getService(IProfileRegistry.SERVICE_NAME);
+				//the profile as installed by the first plan.
+				IProfile installed = profileRegistry.getProfile(profile.getProfileId());
+				if (installed == null) {
+					installed = profile;
+				}
+			 	start = startTimer();
 			 	IProvisioningPlan sourcesPlan =
-			 			AddSourcesRequirementsHelper.planInSourceBundles(profile,
+			 			AddSourcesRequirementsHelper.planInSourceBundles(installed,
 						context, new NullProgressMonitor(), profileRegistry, engine, planner);
-			 	long oldTimestamp = profile.getTimestamp();
+			 	stopTimer("sources.plan", start); //$NON-NLS-1$
+			 	if (sourcesPlan == null) {
+			 		System.out.println("The source bundles are up to date.");
+			 		return;
+			 	}
+			 	long oldTimestamp = installed.getTimestamp();
 				IPhaseSet phases = PhaseSetFactory.createDefaultPhaseSetExcluding(
 						new String[] {PhaseSetFactory.PHASE_CHECK_TRUST, PhaseSetFactory.PHASE_CONFIGURE,
 								PhaseSetFactory.PHASE_UNCONFIGURE, PhaseSetFactory.PHASE_UNINSTALL});
@@ -666,12 +870,44 @@ public class ForkedDirectorApplication implements IApplication {
 				// remove the old (intermediate) profile version now we have a new one with source.
 				profileRegistry.removeProfile(profile.getProfileId(), oldTimestamp);			 	
 			} catch (CoreException e) {
-				//nevermind
-				e.printStackTrace();
+				//the runtime bundles are installed: the sources are optional.
+				LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to install the source bundles", e)); //$NON-NLS-1$
 			}
 		}
 		
 	}
+	/**
+	 * Adds the source IU computed from the future state of the plan to the request and plans it again.
+	 * The source requirements depend on the bundles selected by the planner so a second
+	 * planner run is still needed; however a single plan is executed and no intermediate profile is written.
+	 * @return The plan that installs the runtime and the source bundles; the given plan itself when the sources
+	 * are up to date: it is executed alone; null when the sources could not be planned with the runtime bundles:
+	 * the given plan is executed and the sources are planned separately.
+	 */
+	private IProvisioningPlan planWithSourceBundles(IProfile profile, ProvisioningContext context, ProfileChangeRequest request, IProvisioningPlan result) {
+		System.out.println("Retrieving the runtime and source bundles...");
+		long start = startTimer();
+		try {
+			if (!AddSourcesRequirementsHelper.addSourceIU(request, profile, result.getFutureState(),
+					context, new NullProgressMonitor())) {
+				//the sources are up to date.
+				return result;
+			}
+			IProvisioningPlan merged = planner.getProvisioningPlan(request, context, new NullProgressMonitor());
+			if (merged.getStatus().isOK()) {
+				return merged;
+			}
+			LogHelper.log(merged.getStatus());
+		} catch (IllegalArgumentException e) {
+			//a version or a version range of the source bundles that p2 does not accept.
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to compute the source IU", e)); //$NON-NLS-1$
+		} finally {
+			stopTimer("sources.plan", start); //$NON-NLS-1$
+		}
+		System.out.println("Unable to plan the source bundles with the runtime bundles: installing them separately.");
+		return null;
+	}
+
 	private void executePlan(ProvisioningContext context, IProvisioningPlan result) throws CoreException {
 		executePlan(context, result, null);
 	}
@@ -679,7 +915,9 @@ public class ForkedDirectorApplication implements IApplication {
 	private void executePlan(ProvisioningContext context, IProvisioningPlan result,
 			IPhaseSet phaseSet) throws CoreException {
 		IStatus operationStatus;
+		countPlanned(result);
 		if (!verifyOnly) {
+			long start = startTimer();
 			if (phaseSet != null) {
 				operationStatus = PlanExecutionHelper.executePlan(result, engine, 
 					phaseSet, context, new NullProgressMonitor());
@@ -687,6 +925,7 @@ public class ForkedDirectorApplication implements IApplication {
 				operationStatus = PlanExecutionHelper.executePlan(result, engine, 
 						context, new NullProgressMonitor());
 			}
+			stopTimer("executePlan", start); //$NON-NLS-1$
 			if (!operationStatus.isOK()) {
 				if (noArtifactRepositorySpecified && hasNoRepositoryFound(operationStatus))
 					throw new ProvisionException(Messages.Application_NoRepositories);
@@ -881,6 +1120,32 @@ public class ForkedDirectorApplication implements IApplication {
 				addSourcesBundles = true;
 				continue;
 			}
+
+			if (OPTION_MERGE_SOURCES.isOption(opt)) {
+				addSourcesBundles = true;
+				mergeSources = true;
+				continue;
+			}
+
+			if (OPTION_METADATA_CACHE.isOption(opt)) {
+				metadataCacheFolder = processFileArgument(getRequiredArgument(args, ++i)).getAbsoluteFile();
+				continue;
+			}
+
+			if (OPTION_METRICS.isOption(opt)) {
+				metricsFile = processFileArgument(getRequiredArgument(args, ++i)).getAbsoluteFile();
+				continue;
+			}
+
+			if (OPTION_LOAD_THREADS.isOption(opt)) {
+				String threads = getRequiredArgument(args, ++i);
+				try {
+					loadThreads = Integer.parseInt(threads);
+				} catch (NumberFormatException e) {
+					throw new ProvisionException(NLS.bind("Invalid number of threads for {0}: {1}", opt, threads)); //$NON-NLS-1$
+				}
+				continue;
+			}
 			
 			throw new ProvisionException(NLS.bind(Messages.unknown_option_0, opt));
 		}
@@ -924,14 +1189,22 @@ public class ForkedDirectorApplication implements IApplication {
 
 	public Object run(String[] args) {
 		long time = System.currentTimeMillis();
+		boolean ok = false;
 
 		try {
 			processArguments(args);
 			if (printHelpInfo)
 				performHelpInfo();
 			else {
+				if (metricsFile != null) {
+					metrics = new DirectorMetrics(metricsFile);
+					DirectorMetrics.setDefault(metrics);
+				}
 				initializeServices();
+				long start = startTimer();
 				initializeRepositories();
+				stopTimer("repositories.load", start); //$NON-NLS-1$
+				countRepositories();
 				if (revertToPreviousState >= 0) {
 					revertToPreviousState();
 				} else if (!(rootsToInstall.isEmpty() && rootsToUninstall.isEmpty()))
@@ -940,10 +1213,14 @@ public class ForkedDirectorApplication implements IApplication {
 					performList();
 				if (printRootIUList)
 					performListInstalledRoots();
-				if (purgeRegistry)
+				if (purgeRegistry) {
+					start = startTimer();
 					purgeRegistry();
+					stopTimer("registry.purge", start); //$NON-NLS-1$
+				}
 				printMessage(NLS.bind(Messages.Operation_complete, new Long(System.currentTimeMillis() - time)));
 			}
+			ok = true;
 			return IApplication.EXIT_OK;
 		} catch (CoreException e) {
 			printMessage(Messages.Operation_failed);
@@ -957,7 +1234,57 @@ public class ForkedDirectorApplication implements IApplication {
 				cleanupRepositories();
 				cleanupServices();
 			}
+			writeMetrics(ok);
+		}
+	}
+
+	private long startTimer() {
+		return metrics != null ? metrics.start() : 0;
+	}
+
+	private void stopTimer(String timer, long start) {
+		if (metrics != null)
+			metrics.stop(timer, start);
+	}
+
+	private void countRepositories() {
+		if (metrics == null)
+			return;
+		metrics.add("repositories.metadata", metadataRepositoryLocations.size()); //$NON-NLS-1$
+		metrics.add("repositories.artifact", artifactRepositoryLocations.size()); //$NON-NLS-1$
+		metrics.add("repositories.loaded", count(metadataReposForRemoval) + count(artifactReposForRemoval)); //$NON-NLS-1$
+	}
+
+	private static int count(URI[] loaded) {
+		int count = 0;
+		if (loaded != null)
+			for (int i = 0; i < loaded.length; i++)
+				if (loaded[i] != null)
+					count++;
+		return count;
+	}
+
+	private void countPlanned(IProvisioningPlan plan) {
+		if (metrics == null || !plan.getStatus().isOK())
+			return;
+		metrics.add("ius.added", plan.getAdditions().query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size()); //$NON-NLS-1$
+		metrics.add("ius.removed", plan.getRemovals().query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Writes the metrics of the run when -metrics is set.
+	 */
+	private void writeMetrics(boolean ok) {
+		if (metrics == null)
+			return;
+		metrics.set("failed", ok ? 0 : 1); //$NON-NLS-1$
+		DirectorMetrics.setDefault(null);
+		try {
+			metrics.close();
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind("Unable to write the metrics in {0}", metricsFile), e)); //$NON-NLS-1$
 		}
+		metrics = null;
 	}
 
 	private void purgeRegistry() throws ProvisionException {
@@ -1071,7 +1398,7 @@ public class ForkedDirectorApplication implements IApplication {
 	}
 
 	private void performHelpInfo() {
-		CommandLineOption[] allOptions = new CommandLineOption[] {OPTION_HELP, OPTION_LIST, OPTION_LIST_INSTALLED, OPTION_INSTALL_IU, OPTION_UNINSTALL_IU, OPTION_REVERT, OPTION_DESTINATION, OPTION_METADATAREPOS, OPTION_ARTIFACTREPOS, OPTION_REPOSITORIES, OPTION_VERIFY_ONLY, OPTION_PROFILE, OPTION_FLAVOR, OPTION_SHARED, OPTION_BUNDLEPOOL, OPTION_PROFILE_PROPS, OPTION_ROAMING, OPTION_P2_OS, OPTION_P2_WS, OPTION_P2_ARCH, OPTION_P2_NL, OPTION_PURGEHISTORY, OPTION_FOLLOW_REFERENCES};
+		CommandLineOption[] allOptions = new CommandLineOption[] {OPTION_HELP, OPTION_LIST, OPTION_LIST_INSTALLED, OPTION_INSTALL_IU, OPTION_UNINSTALL_IU, OPTION_REVERT, OPTION_DESTINATION, OPTION_METADATAREPOS, OPTION_ARTIFACTREPOS, OPTION_REPOSITORIES, OPTION_VERIFY_ONLY, OPTION_PROFILE, OPTION_FLAVOR, OPTION_SHARED, OPTION_BUNDLEPOOL, OPTION_PROFILE_PROPS, OPTION_ROAMING, OPTION_P2_OS, OPTION_P2_WS, OPTION_P2_ARCH, OPTION_P2_NL, OPTION_PURGEHISTORY, OPTION_FOLLOW_REFERENCES, OPTION_ADD_SOURCES, OPTION_MERGE_SOURCES, OPTION_LOAD_THREADS, OPTION_METADATA_CACHE, OPTION_METRICS};
 		for (int i = 0; i < allOptions.length; ++i) {
 			allOptions[i].appendHelp(System.out);
 		}
@@ -0,0 +1,408 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.director.extended.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.URIUtil;
+import org.eclipse.ecf.provider.filetransfer.httpclient.extended.XHttpClientConnectionPool;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.ICompositeRepository;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+
+/**
+ * On-disk cache of the remote metadata repositories loaded by the director.
+ * <p>
+ * The installable units of a remote repository are copied into a regular compressed p2
+ * repository (content.jar) inside a folder of the cache: it is not a custom binary form,
+ * loading it still parses the metadata but from the local disk.
+ * The ETag, or else the Last-Modified date, of each index file of the remote repository
+ * is stored next to the copy. On the next run each index file is revalidated with a conditional
+ * HEAD request (If-None-Match or If-Modified-Since) sent through the shared connection pool;
+ * when every answer is 304 Not Modified the local copy is loaded instead of downloading and
+ * parsing the remote repository again. The local copy is also used when the remote repository
+ * cannot be reached. Nothing is revalidated when nothing is cached: the validators are read
+ * right after the remote repository is loaded.
+ * </p>
+ * <p>
+ * A composite repository is copied flattened: the index files of all its children,
+ * nested composites included, are revalidated together with its own.
+ * A composite with a child that is not remote is not cached.
+ * All the HEAD requests are sent at once and share a single timeout.
+ * </p>
+ */
+public class MetadataRepositoryCache {
+
+	private static final String STAMP_FILE = "cache.properties"; //$NON-NLS-1$
+	private static final String PROP_LOCATION = "location"; //$NON-NLS-1$
+	/** The prefix of the properties that hold the validator of an index file by url. */
+	private static final String PROP_VALIDATOR = "validator."; //$NON-NLS-1$
+	/** The validators: an ETag, a Last-Modified date or the index file is absent. */
+	private static final String ETAG = "etag:"; //$NON-NLS-1$
+	private static final String LAST_MODIFIED = "last-modified:"; //$NON-NLS-1$
+	private static final String ABSENT = "absent"; //$NON-NLS-1$
+	/** The files of a remote repository that change when the repository changes. */
+	private static final String[] INDEX_FILES = new String[] {"compositeContent.jar", "compositeContent.xml", "content.jar", "content.xml"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	/** Maximum number of seconds to wait for the answers to the HEAD requests of a repository. */
+	private static final long BROWSE_TIMEOUT = 60;
+	/** Maximum number of HEAD requests in flight. */
+	private static final int MAX_PROBES = 8;
+
+	/** The outcome of the revalidation of a cached copy. */
+	enum Freshness {
+		UNCHANGED, CHANGED, UNREACHABLE
+	}
+
+	private final IMetadataRepositoryManager manager;
+	private final File cacheFolder;
+
+	public MetadataRepositoryCache(IMetadataRepositoryManager manager, File cacheFolder) {
+		this.manager = manager;
+		this.cacheFolder = cacheFolder;
+	}
+
+	/**
+	 * @return true if the repository is remote and can be revalidated.
+	 */
+	public static boolean isCacheable(URI location) {
+		String scheme = location.getScheme();
+		return scheme != null && (scheme.equals("http") || scheme.equals("https") //$NON-NLS-1$ //$NON-NLS-2$
+				|| scheme.equals("xhttp") || scheme.equals("xhttps")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Loads a remote repository in the manager through the cache.
+	 * @param location The location of the remote repository
+	 * @param monitor
+	 * @return The location of the repository now loaded in the manager:
+	 * the location of the local copy or the remote location if it could not be cached.
+	 * @throws ProvisionException when the repository could not be loaded at all.
+	 */
+	public URI load(URI location, IProgressMonitor monitor) throws ProvisionException {
+		File folder = new File(cacheFolder, getCacheKey(location));
+		URI cachedLocation = folder.toURI();
+		Properties cached = readStamp(folder);
+		if (cached != null && !location.toString().equals(cached.getProperty(PROP_LOCATION)))
+			cached = null;
+		if (cached != null && revalidate(cached) != Freshness.CHANGED) {
+			//unchanged or unreachable: use the local copy.
+			try {
+				manager.loadRepository(cachedLocation, monitor);
+				return cachedLocation;
+			} catch (ProvisionException e) {
+				//the copy is not readable anymore: refresh it.
+				LogHelper.log(e.getStatus());
+			}
+		}
+		IMetadataRepository remote = manager.loadRepository(location, monitor);
+		List<URI> children = getChildren(remote);
+		Map<String, String> validators = children == null ? null : getValidators(location, children);
+		if (validators == null) {
+			//we would not be able to revalidate it.
+			return location;
+		}
+		try {
+			storeCopy(remote, folder, location, validators, monitor);
+		} catch (ProvisionException e) {
+			LogHelper.log(e.getStatus());
+			return location;
+		}
+		manager.removeRepository(location);
+		return cachedLocation;
+	}
+
+	private void storeCopy(IMetadataRepository remote, File folder, URI location, Map<String, String> validators, IProgressMonitor monitor) throws ProvisionException {
+		URI cachedLocation = folder.toURI();
+		//never leave a stamp next to a copy that is being rewritten.
+		new File(folder, STAMP_FILE).delete();
+		if (manager.contains(cachedLocation))
+			manager.removeRepository(cachedLocation);
+		new File(folder, "content.jar").delete(); //$NON-NLS-1$
+		new File(folder, "content.xml").delete(); //$NON-NLS-1$
+		folder.mkdirs();
+
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(IRepository.PROP_COMPRESSED, Boolean.TRUE.toString());
+		IMetadataRepository copy = manager.createRepository(cachedLocation, remote.getName(), IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		copy.addInstallableUnits(remote.query(QueryUtil.createIUAnyQuery(), monitor).toUnmodifiableSet());
+		copy.addReferences(remote.getReferences());
+
+		Properties p = new Properties();
+		p.setProperty(PROP_LOCATION, location.toString());
+		for (Map.Entry<String, String> validator : validators.entrySet())
+			p.setProperty(PROP_VALIDATOR + validator.getKey(), validator.getValue());
+		writeStamp(folder, p);
+	}
+
+	/**
+	 * @return The locations of the children of a composite repository and of their own children,
+	 * an empty list for a simple repository or null if one of the children cannot be revalidated.
+	 */
+	private List<URI> getChildren(IMetadataRepository repository) {
+		List<URI> children = new ArrayList<URI>();
+		return collectChildren(repository, children) ? children : null;
+	}
+
+	private boolean collectChildren(IMetadataRepository repository, List<URI> children) {
+		if (!(repository instanceof ICompositeRepository<?>))
+			return true;
+		for (URI child : ((ICompositeRepository<?>) repository).getChildren()) {
+			if (children.contains(child))
+				continue;
+			if (!isCacheable(child))
+				return false;
+			children.add(child);
+			try {
+				//already loaded by the composite.
+				if (!collectChildren(manager.loadRepository(child, null), children))
+					return false;
+			} catch (ProvisionException e) {
+				//the composite skipped it as well.
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends a HEAD request for each index file of the remote repository and of its children.
+	 * @param location The remote repository
+	 * @param children The locations of its children when it is a composite
+	 * @return The validators of the index files by url, {@link #ABSENT} for the missing ones,
+	 * or null if one of the repositories has no index file that can be revalidated.
+	 */
+	static Map<String, String> getValidators(URI location, List<URI> children) {
+		List<URI> locations = new ArrayList<URI>(children.size() + 1);
+		locations.add(location);
+		locations.addAll(children);
+		List<Probe> probes = new ArrayList<Probe>(locations.size() * INDEX_FILES.length);
+		for (URI repository : locations) {
+			for (String index : INDEX_FILES)
+				probes.add(new Probe(toHttpUrl(URIUtil.append(repository, index)), null));
+		}
+		send(probes);
+		Map<String, String> validators = new LinkedHashMap<String, String>();
+		for (int i = 0; i < locations.size(); i++) {
+			boolean found = false;
+			for (int j = 0; j < INDEX_FILES.length; j++) {
+				Probe probe = probes.get(i * INDEX_FILES.length + j);
+				if (probe.status == HttpStatus.SC_NOT_FOUND) {
+					validators.put(probe.url, ABSENT);
+				} else if (probe.status == HttpStatus.SC_OK && probe.validator != null) {
+					validators.put(probe.url, probe.validator);
+					found = true;
+				} else {
+					//unreachable or not revalidable.
+					return null;
+				}
+			}
+			if (!found)
+				return null;
+		}
+		return validators;
+	}
+
+	/**
+	 * Sends a conditional HEAD request for each index file recorded in the stamp of a cached copy.
+	 * @return UNCHANGED when every file is still the same or still absent,
+	 * UNREACHABLE when one of the requests did not get an answer, CHANGED otherwise.
+	 */
+	static Freshness revalidate(Properties cached) {
+		List<Probe> probes = new ArrayList<Probe>();
+		for (Object key : cached.keySet()) {
+			String name = (String) key;
+			if (name.startsWith(PROP_VALIDATOR))
+				probes.add(new Probe(name.substring(PROP_VALIDATOR.length()), cached.getProperty(name)));
+		}
+		if (probes.isEmpty())
+			return Freshness.CHANGED;
+		send(probes);
+		Freshness freshness = Freshness.UNCHANGED;
+		for (Probe probe : probes) {
+			boolean unchanged = probe.previous.equals(ABSENT) ? probe.status == HttpStatus.SC_NOT_FOUND
+					: probe.status == HttpStatus.SC_NOT_MODIFIED;
+			if (unchanged)
+				continue;
+			if (probe.status == -1 || probe.status >= 500 || probe.status == HttpStatus.SC_UNAUTHORIZED
+					|| probe.status == HttpStatus.SC_FORBIDDEN || probe.status == HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED)
+				freshness = Freshness.UNREACHABLE;
+			else
+				return Freshness.CHANGED;
+		}
+		return freshness;
+	}
+
+	/**
+	 * Sends all the requests at once and waits for their answers until a single deadline.
+	 * The requests that are not answered in time keep a status of -1.
+	 */
+	private static void send(List<Probe> probes) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_PROBES, probes.size())));
+		try {
+			List<Future<?>> answers = new ArrayList<Future<?>>(probes.size());
+			for (Probe probe : probes)
+				answers.add(executor.submit(probe));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(BROWSE_TIMEOUT);
+			for (Future<?> answer : answers) {
+				try {
+					answer.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				} catch (ExecutionException e) {
+					//the probe keeps its status of -1.
+				} catch (TimeoutException e) {
+					break;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The http(s) url of an http(s) or xhttp(s) location.
+	 */
+	private static String toHttpUrl(URI location) {
+		String url = location.toString();
+		return url.startsWith("xhttp") ? url.substring(1) : url; //$NON-NLS-1$
+	}
+
+	/**
+	 * A HEAD request for an index file, conditional when a validator of the file is known.
+	 */
+	private static class Probe implements Callable<Object> {
+		private final String url;
+		private final String previous;
+		/** The status of the answer or -1 when the server could not be reached. */
+		private volatile int status = -1;
+		/** The validator sent by the server in a 200 answer. */
+		private volatile String validator;
+
+		/**
+		 * @param url The url of the index file
+		 * @param previous The validator of the cached copy or null
+		 */
+		Probe(String url, String previous) {
+			this.url = url;
+			this.previous = previous;
+		}
+
+		public Object call() {
+			HttpClient client = XHttpClientConnectionPool.createHttpClient();
+			HeadMethod head = new HeadMethod(url);
+			head.getParams().setSoTimeout((int) TimeUnit.SECONDS.toMillis(BROWSE_TIMEOUT));
+			//a HEAD is idempotent: retry it when a kept-alive connection was closed by the server.
+			head.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, new DefaultHttpMethodRetryHandler(3, true));
+			if (previous != null && previous.startsWith(ETAG))
+				head.setRequestHeader("If-None-Match", previous.substring(ETAG.length())); //$NON-NLS-1$
+			else if (previous != null && previous.startsWith(LAST_MODIFIED))
+				head.setRequestHeader("If-Modified-Since", previous.substring(LAST_MODIFIED.length())); //$NON-NLS-1$
+			try {
+				int code = client.executeMethod(head);
+				if (code == HttpStatus.SC_OK) {
+					Header etag = head.getResponseHeader("ETag"); //$NON-NLS-1$
+					Header lastModified = head.getResponseHeader("Last-Modified"); //$NON-NLS-1$
+					if (etag != null)
+						validator = ETAG + etag.getValue();
+					else if (lastModified != null)
+						validator = LAST_MODIFIED + lastModified.getValue();
+				}
+				status = code;
+			} catch (IOException e) {
+				//unreachable.
+			} catch (IllegalArgumentException e) {
+				//not an http url.
+			} finally {
+				head.releaseConnection();
+			}
+			return null;
+		}
+	}
+
+	private static String getCacheKey(URI location) {
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			byte[] digest = md5.digest(location.toString().getBytes("UTF-8")); //$NON-NLS-1$
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(location.toString().hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(location.toString().hashCode());
+		}
+	}
+
+	private static Properties readStamp(File folder) {
+		File stampFile = new File(folder, STAMP_FILE);
+		if (!stampFile.exists())
+			return null;
+		InputStream in = null;
+		try {
+			in = new FileInputStream(stampFile);
+			Properties p = new Properties();
+			p.load(in);
+			return p;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) try { in.close(); } catch (IOException ioe) {}
+		}
+	}
+
+	private static void writeStamp(File folder, Properties p) throws ProvisionException {
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(new File(folder, STAMP_FILE));
+			p.store(out, null);
+		} catch (IOException e) {
+			throw new ProvisionException("Unable to write the metadata cache stamp in " + folder, e); //$NON-NLS-1$
+		} finally {
+			if (out != null) try { out.close(); } catch (IOException ioe) {}
+		}
+	}
+
+}
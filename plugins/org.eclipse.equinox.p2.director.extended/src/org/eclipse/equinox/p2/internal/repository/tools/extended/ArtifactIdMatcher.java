@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.internal.repository.tools.extended;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.expression.SimplePattern;
+
+/**
+ * Matches artifact ids against a list of p2 simple patterns compiled once.
+ * <p>
+ * The synthax is the one of the p2 SimplePattern: '*' matches any sequence of characters,
+ * '?' matches exactly one character and '\' escapes the next character.
+ * An id matches when it matches at least one of the patterns.
+ * </p>
+ * <p>
+ * The patterns are sorted by shape so that an id is not tested against every pattern:
+ * <ul>
+ * <li>patterns without wildcards are looked up in a hash set,</li>
+ * <li>the literal prefix of the other patterns is stored in a trie:
+ * <code>prefix*</code> patterns match as soon as the walk of the id reaches the end of their prefix;
+ * the remainders of the other glob patterns sharing the same prefix are joined in a regular
+ * expression alternation evaluated against the rest of the id only,</li>
+ * <li>the patterns starting with a wildcard are joined in another alternation evaluated against the whole id,</li>
+ * <li>the patterns with escaped characters are delegated to the p2 expression engine's
+ * {@link SimplePattern}.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The alternations are java.util.regex patterns, not a deterministic automaton: they try their
+ * branches one after the other and backtrack on each '*'. The trie and the hash set keep the
+ * literal and <code>prefix*</code> patterns out of them; an id is matched in time proportional
+ * to the number of glob patterns that share its prefix or start with a wildcard.
+ * </p>
+ */
+public class ArtifactIdMatcher {
+
+	/** A node of the trie of the literal prefixes. */
+	private static class Node {
+		Map<Character, Node> children;
+		/** true when a <code>prefix*</code> pattern ends here. */
+		boolean prefixEnd;
+		/** The remainders of the glob patterns which literal prefix ends here. */
+		List<String> globRegexes;
+		/** The alternation of the remainders once compiled. */
+		Pattern globs;
+
+		Node child(char c, boolean create) {
+			Node child = children == null ? null : children.get(c);
+			if (child == null && create) {
+				if (children == null) {
+					children = new HashMap<Character, Node>(4);
+				}
+				child = new Node();
+				children.put(c, child);
+			}
+			return child;
+		}
+
+		void compile() {
+			if (globRegexes != null) {
+				globs = Pattern.compile(union(globRegexes));
+				globRegexes = null;
+			}
+			if (children != null) {
+				for (Node child : children.values()) {
+					child.compile();
+				}
+			}
+		}
+	}
+
+	private final String[] simplePatterns;
+	/** true when one of the pattern is '*' */
+	private boolean matchAll;
+	private final Set<String> literals = new HashSet<String>();
+	private final Node prefixes = new Node();
+	/** the alternation of the patterns that start with a wildcard */
+	private Pattern leadingWildcards;
+	private final List<SimplePattern> fallbacks = new ArrayList<SimplePattern>();
+
+	private ArtifactIdMatcher(String[] simplePatterns) {
+		this.simplePatterns = simplePatterns;
+		List<String> leading = new ArrayList<String>();
+		for (String simplePattern : simplePatterns) {
+			add(simplePattern, leading);
+		}
+		prefixes.compile();
+		if (!leading.isEmpty()) {
+			leadingWildcards = Pattern.compile(union(leading));
+		}
+	}
+
+	private void add(String simplePattern, List<String> leading) {
+		if (simplePattern.indexOf('\\') != -1) {
+			fallbacks.add(SimplePattern.compile(simplePattern));
+			return;
+		}
+		int wildcard = firstWildcard(simplePattern);
+		if (wildcard == -1) {
+			literals.add(simplePattern);
+			return;
+		}
+		if (wildcard == 0) {
+			if (simplePattern.equals("*")) { //$NON-NLS-1$
+				matchAll = true;
+			} else {
+				leading.add(toRegex(simplePattern));
+			}
+			return;
+		}
+		Node node = prefixes;
+		for (int i = 0; i < wildcard; i++) {
+			node = node.child(simplePattern.charAt(i), true);
+		}
+		String remainder = simplePattern.substring(wildcard);
+		if (remainder.equals("*")) { //$NON-NLS-1$
+			node.prefixEnd = true;
+		} else {
+			if (node.globRegexes == null) {
+				node.globRegexes = new ArrayList<String>(1);
+			}
+			node.globRegexes.add(toRegex(remainder));
+		}
+	}
+
+	/**
+	 * @param simplePatterns The patterns
+	 * @return The matcher for the union of the patterns
+	 */
+	public static ArtifactIdMatcher compile(String... simplePatterns) {
+		return new ArtifactIdMatcher(simplePatterns == null ? new String[0] : simplePatterns);
+	}
+
+	/**
+	 * @return true if the id of the key matches one of the patterns.
+	 */
+	public boolean matches(IArtifactKey key) {
+		return matches(key.getId());
+	}
+
+	/**
+	 * @return true if the id matches one of the patterns.
+	 */
+	public boolean matches(String id) {
+		if (matchAll || literals.contains(id)) {
+			return true;
+		}
+		int len = id.length();
+		Node node = prefixes;
+		for (int i = 0; node != null; i++) {
+			if (node.prefixEnd) {
+				return true;
+			}
+			if (node.globs != null) {
+				Matcher m = node.globs.matcher(id);
+				m.region(i, len);
+				if (m.matches()) {
+					return true;
+				}
+			}
+			node = i < len ? node.child(id.charAt(i), false) : null;
+		}
+		if (leadingWildcards != null && leadingWildcards.matcher(id).matches()) {
+			return true;
+		}
+		for (SimplePattern fallback : fallbacks) {
+			if (fallback.isMatch(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String[] getPatterns() {
+		return simplePatterns;
+	}
+
+	private static int firstWildcard(String simplePattern) {
+		int len = simplePattern.length();
+		for (int i = 0; i < len; i++) {
+			char c = simplePattern.charAt(i);
+			if (c == '*' || c == '?') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String union(List<String> regexes) {
+		StringBuilder sb = new StringBuilder();
+		for (String regex : regexes) {
+			if (sb.length() != 0) {
+				sb.append('|');
+			}
+			sb.append("(?:").append(regex).append(')'); //$NON-NLS-1$
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return The regular expression equivalent to a p2 simple pattern.
+	 */
+	static String toRegex(String simplePattern) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		int len = simplePattern.length();
+		for (int i = 0; i < len; i++) {
+			char c = simplePattern.charAt(i);
+			if (c == '\\' && i + 1 < len) {
+				literal.append(simplePattern.charAt(++i));
+			} else if (c == '*' || c == '?') {
+				if (literal.length() != 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : "."); //$NON-NLS-1$ //$NON-NLS-2$
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() != 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.toString();
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.internal.repository.tools.extended;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.query.ExpressionQuery;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.MatchQuery;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+
+/**
+ * The queries and the selection of the artifacts used by the -exclude and -include
+ * arguments of {@link MirrorApplicationWithFilters}.
+ * <p>
+ * Kept apart from the mirror application so that they only depend on the p2 metadata
+ * and the p2 repository API.
+ * </p>
+ */
+public class ArtifactKeyFilters {
+
+	public static final IQuery<IArtifactDescriptor> NO_UNITS =
+		new ExpressionQuery<IArtifactDescriptor>(IArtifactDescriptor.class, "limit(0)"); //$NON-NLS-1$
+
+	/**
+	 * @param idPatterns The simple patterns of the artifact ids to exclude or <code>null</code> to match nothing
+	 * @return a query that matches the artifact descriptors which artifact id is matched.
+	 */
+	public static IQuery<IArtifactDescriptor> createExcludingQuery(String... idPatterns) {
+		return idPatterns == null ? NO_UNITS
+				: createExcludingQuery(ArtifactIdMatcher.compile(idPatterns));
+	}
+
+	/**
+	 * @param matcher The compiled patterns
+	 * @return a query that matches the artifact descriptors which artifact id is matched.
+	 */
+	public static IQuery<IArtifactDescriptor> createExcludingQuery(final ArtifactIdMatcher matcher) {
+		return new MatchQuery<IArtifactDescriptor>() {
+			@Override
+			public boolean isMatch(IArtifactDescriptor candidate) {
+				return matcher.matches(candidate.getArtifactKey());
+			}
+		};
+	}
+
+	/**
+	 * @param simplePatterns The simple patterns of the artifact ids to include
+	 * @return a query that matches the artifact keys which id is matched.
+	 */
+	public static IQuery<IArtifactKey> createIncludingQuery(String... simplePatterns) {
+		return createIncludingQuery(ArtifactIdMatcher.compile(simplePatterns));
+	}
+
+	/**
+	 * @param matcher The compiled patterns
+	 * @return a query that matches the artifact keys which id is matched.
+	 */
+	public static IQuery<IArtifactKey> createIncludingQuery(final ArtifactIdMatcher matcher) {
+		return new MatchQuery<IArtifactKey>() {
+			@Override
+			public boolean isMatch(IArtifactKey candidate) {
+				return matcher.matches(candidate);
+			}
+		};
+	}
+
+	/**
+	 * Removes all the keys which id is matched by the exclusions.
+	 * The result of the match is remembered by id so that each distinct id is matched once
+	 * and all the versions of an excluded id are removed.
+	 *
+	 * @param keys The keys to filter
+	 * @param exclusions The compiled exclusion patterns
+	 * @return The keys that are not excluded in their original order.
+	 */
+	public static ArrayList<IArtifactKey> removeExcludedKeys(Collection<IArtifactKey> keys, ArtifactIdMatcher exclusions) {
+		Map<String, Boolean> excludedById = new HashMap<String, Boolean>();
+		ArrayList<IArtifactKey> kept = new ArrayList<IArtifactKey>(keys.size());
+		for (IArtifactKey key : keys) {
+			Boolean excluded = excludedById.get(key.getId());
+			if (excluded == null) {
+				excluded = Boolean.valueOf(exclusions.matches(key.getId()));
+				excludedById.put(key.getId(), excluded);
+			}
+			if (!excluded.booleanValue()) {
+				kept.add(key);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Removes all the keys which id is the id of one of the excluded descriptors.
+	 *
+	 * @param keys The keys to filter
+	 * @param exclusions The descriptors matched by an excluding query
+	 * @return The keys that are not excluded in their original order.
+	 */
+	public static ArrayList<IArtifactKey> removeExcludedKeys(Collection<IArtifactKey> keys, Iterable<IArtifactDescriptor> exclusions) {
+		Set<String> excludedIds = new HashSet<String>();
+		for (IArtifactDescriptor descriptor : exclusions) {
+			excludedIds.add(descriptor.getArtifactKey().getId());
+		}
+		ArrayList<IArtifactKey> kept = new ArrayList<IArtifactKey>(keys.size());
+		for (IArtifactKey key : keys) {
+			if (!excludedIds.contains(key.getId())) {
+				kept.add(key);
+			}
+		}
+		return kept;
+	}
+
+}
@@ -11,21 +11,35 @@
 package org.eclipse.equinox.p2.internal.repository.tools.extended;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IExecutableExtension;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.URIUtil;
+import org.eclipse.ecf.provider.filetransfer.httpclient.extended.XHttpClientMetrics;
 import org.eclipse.equinox.app.IApplication;
 import org.eclipse.equinox.app.IApplicationContext;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
@@ -37,16 +51,19 @@ import org.eclipse.equinox.p2.internal.repository.mirroring.IArtifactMirrorLog;
 import org.eclipse.equinox.p2.internal.repository.mirroring.Mirroring;
 import org.eclipse.equinox.p2.internal.repository.mirroring.XMLMirrorLog;
 import org.eclipse.equinox.p2.internal.repository.tools.AbstractApplication;
+import org.eclipse.equinox.p2.internal.repository.tools.Activator;
 import org.eclipse.equinox.p2.internal.repository.tools.Messages;
 import org.eclipse.equinox.p2.internal.repository.tools.RepositoryDescriptor;
 import org.eclipse.equinox.p2.internal.repository.tools.SlicingOptions;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.query.CollectionResult;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.IQueryable;
 import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.artifact.ArtifactKeyQuery;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
@@ -62,6 +79,8 @@ import org.eclipse.osgi.util.NLS;
 public class MirrorApplicationForked extends AbstractApplication implements IApplication, IExecutableExtension {
 	private static final String LOG_ROOT = "p2.mirror"; //$NON-NLS-1$
 	private static final String MIRROR_MODE = "metadataOrArtifacts"; //$NON-NLS-1$
+	/** Batches are journaled when they complete: keep them small so a restart redoes little. */
+	private static final int JOURNAL_BATCH_SIZE = 50;
 
 	protected SlicingOptions slicingOptions = new SlicingOptions();
 
@@ -76,9 +95,18 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 	private boolean mirrorReferences = false;
 	private String metadataOrArtifacts = null;
 	private String[] rootIUs = null;
+	private int threads = 1;
+	private int sliceThreads = 1;
+	private boolean resume = false;
+	private boolean resetJournal = false;
+	private File journalFile; // file to journal the mirrored artifacts to (optional)
+	private MirrorJournal journal;
+	/** Held by the mirroring threads while they change the destination artifact repository. */
+	private final Object destinationLock = new Object();
 
 	private File mirrorLogFile; // file to log mirror output to (optional)
 	private File comparatorLogFile; // file to comparator output to (optional)
+	private File metricsFile; // file to write the transfer metrics to (optional)
 	private IArtifactMirrorLog mirrorLog;
 	private IArtifactMirrorLog comparatorLog;
 
@@ -155,6 +183,8 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 				validate = true;
 			else if (args[i].equalsIgnoreCase("-references")) //$NON-NLS-1$
 				mirrorReferences = true;
+			else if (args[i].equalsIgnoreCase("-resume")) //$NON-NLS-1$
+				resume = true;
 
 			// check for args with parameters. If we are at the last argument or 
 			// if the next one has a '-' as the first character, then we can't have 
@@ -171,12 +201,28 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 			else if (args[i - 1].equalsIgnoreCase("-destinationName")) //$NON-NLS-1$	
 				destination.setName(arg);
 			else if (args[i - 1].equalsIgnoreCase("-writeMode")) { //$NON-NLS-1$
-				if (args[i].equalsIgnoreCase("clean")) //$NON-NLS-1$
+				if (args[i].equalsIgnoreCase("clean")) { //$NON-NLS-1$
 					destination.setAppend(false);
+					resetJournal = true;
+				}
 			} else if (args[i - 1].equalsIgnoreCase("-log")) { //$NON-NLS-1$
 				mirrorLogLocation = new File(arg);
 			} else if (args[i - 1].equalsIgnoreCase("-roots")) { //$NON-NLS-1$
 				rootIUs = getArrayArgsFromString(arg, ","); //$NON-NLS-1$
+			} else if (args[i - 1].equalsIgnoreCase("-threads")) { //$NON-NLS-1$
+				try {
+					threads = Integer.parseInt(arg);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(NLS.bind("Invalid number of threads: {0}", arg)); //$NON-NLS-1$
+				}
+			} else if (args[i - 1].equalsIgnoreCase("-sliceThreads")) { //$NON-NLS-1$
+				try {
+					sliceThreads = Integer.parseInt(arg);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(NLS.bind("Invalid number of threads: {0}", arg)); //$NON-NLS-1$
+				}
+			} else if (args[i - 1].equalsIgnoreCase("-metrics")) { //$NON-NLS-1$
+				metricsFile = new File(arg);
 			} else {
 				try {
 					if (args[i - 1].equalsIgnoreCase("-source")) { //$NON-NLS-1$
@@ -198,18 +244,32 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 		// Create logs
 		if (mirrorLogLocation != null)
 			mirrorLog = getLog(mirrorLogLocation, "p2.artifact.mirror"); //$NON-NLS-1$
+		if (resume) {
+			if (mirrorLogLocation == null)
+				throw new IllegalArgumentException("-resume requires -log: the journal is written next to the log file"); //$NON-NLS-1$
+			journalFile = new File(mirrorLogLocation.getAbsolutePath() + ".journal"); //$NON-NLS-1$
+		}
 		if (comparatorLogLocation != null && comparatorID != null)
 			comparatorLog = getLog(comparatorLogLocation, comparatorID);
 	}
 
 	public IStatus run(IProgressMonitor monitor) throws ProvisionException {
 		IStatus mirrorStatus = Status.OK_STATUS;
+		if (metricsFile != null)
+			XHttpClientMetrics.getDefault().reset();
 		try {
 			initializeRepos(new NullProgressMonitor());
 			initializeLogs();
+			initializeJournal();
 			validate();
-			initializeIUs();
-			IQueryable<IInstallableUnit> slice = slice(new NullProgressMonitor());
+			IQueryable<IInstallableUnit> slice;
+			if (hasMetadataSourceDescriptors()) {
+				initializeIUs();
+				slice = slice(new NullProgressMonitor());
+			} else {
+				// artifacts only: nothing to slice, all the artifacts are mirrored
+				slice = new CollectionResult<IInstallableUnit>(Collections.<IInstallableUnit> emptySet());
+			}
 			if (destinationArtifactRepository != null) {
 				mirrorStatus = mirrorArtifacts(slice, new NullProgressMonitor());
 				if (failOnError && mirrorStatus.getSeverity() == IStatus.ERROR)
@@ -220,6 +280,8 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 		} finally {
 			finalizeRepositories();
 			finalizeLogs();
+			finalizeJournal();
+			finalizeMetrics();
 		}
 		if (mirrorStatus.isOK())
 			return Status.OK_STATUS;
@@ -228,17 +290,27 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 
 	protected IStatus mirrorArtifacts(IQueryable<IInstallableUnit> slice, IProgressMonitor monitor) {
 		// Obtain ArtifactKeys from IUs
-		IQueryResult<IInstallableUnit> ius = slice.query(QueryUtil.createIUAnyQuery(), monitor);
-		ArrayList<IArtifactKey> keys = new ArrayList<IArtifactKey>();
-		for (Iterator<IInstallableUnit> iterator = ius.iterator(); iterator.hasNext();) {
-			IInstallableUnit iu = iterator.next();
-			keys.addAll(iu.getArtifacts());
+		Set<IInstallableUnit> ius = slice.query(QueryUtil.createIUAnyQuery(), monitor).toUnmodifiableSet();
+		// The artifacts shared by several IUs are collected once
+		Set<IArtifactKey> uniqueKeys = new LinkedHashSet<IArtifactKey>(Math.max(16, ius.size() * 4 / 3 + 1));
+		int references = 0;
+		for (IInstallableUnit iu : ius) {
+			Collection<IArtifactKey> artifacts = iu.getArtifacts();
+			references += artifacts.size();
+			uniqueKeys.addAll(artifacts);
+		}
+		if (mirrorLog != null)
+			mirrorLog.log(new Status(IStatus.INFO, Activator.ID, NLS.bind("Collected {0} artifact keys from {1} IUs: {2} duplicates skipped", new Object[] {Integer.toString(uniqueKeys.size()), Integer.toString(ius.size()), Integer.toString(references - uniqueKeys.size())}))); //$NON-NLS-1$
+		ArrayList<IArtifactKey> keys = new ArrayList<IArtifactKey>(uniqueKeys);
+
+		IStatus result;
+		if (threads > 1 || journal != null) {
+			result = mirrorArtifactsConcurrently(keys);
+		} else {
+			Mirroring mirror = internalCreateMirroring();
+			internalSetMirroring(mirror, keys);
+			result = mirror.run(failOnError, verbose);
 		}
-
-		Mirroring mirror = internalCreateMirroring();
-		internalSetMirroring(mirror, keys);
-
-		IStatus result = mirror.run(failOnError, verbose);
 
 		if (mirrorLog != null)
 			mirrorLog.log(result);
@@ -252,13 +324,31 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 	}
 	
 	protected Mirroring internalCreateMirroring() {
-		return new Mirroring(getCompositeArtifactRepository(), destinationArtifactRepository, raw);
+		return internalCreateMirroring(destinationArtifactRepository);
+	}
+
+	protected Mirroring internalCreateMirroring(IArtifactRepository destination) {
+		return new Mirroring(getCompositeArtifactRepository(), destination, raw);
 	}
 	
 	protected void internalSetMirroring(Mirroring mirror, ArrayList<IArtifactKey> keys) {
+		configureMirroring(mirror, keys, initializeBaseline(), comparatorLog);
+	}
+
+	/**
+	 * Selects the artifact keys to mirror among the ones collected from the slice.
+	 * An empty list means that everything is mirrored.
+	 * Subclasses that filter the artifacts must apply the same selection in
+	 * {@link #internalSetMirroring(Mirroring, ArrayList)}.
+	 */
+	protected ArrayList<IArtifactKey> internalSelectArtifactKeys(ArrayList<IArtifactKey> keys) {
+		return keys;
+	}
+
+	private void configureMirroring(Mirroring mirror, ArrayList<IArtifactKey> keys, IArtifactRepository baselineRepository, IArtifactMirrorLog compLog) {
 		mirror.setCompare(compare);
 		mirror.setComparatorId(comparatorID);
-		mirror.setBaseline(initializeBaseline());
+		mirror.setBaseline(baselineRepository);
 		mirror.setValidate(validate);
 		mirror.setCompareExclusions(compareExclusions);
 		
@@ -266,8 +356,168 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 		if (keys.size() > 0)
 			mirror.setArtifactKeys(keys.toArray(new IArtifactKey[keys.size()]));
 
-		if (comparatorLog != null)
-			mirror.setComparatorLog(comparatorLog);
+		if (compLog != null)
+			mirror.setComparatorLog(compLog);
+	}
+
+	/**
+	 * Splits the artifact keys in batches mirrored by a pool of threads.
+	 * Each batch is copied by its own Mirroring into the destination repository:
+	 * the artifacts are downloaded in parallel but the changes to the destination
+	 * are serialized by a {@link SerializedArtifactRepository}.
+	 * When failOnError is set the batches that have not started yet are skipped
+	 * as soon as one of them fails.
+	 * When there is a journal the keys it records are skipped and each completed batch is journaled.
+	 * @return The statuses of the batches that did not succeed.
+	 */
+	protected IStatus mirrorArtifactsConcurrently(ArrayList<IArtifactKey> keys) {
+		keys = internalSelectArtifactKeys(keys);
+		if (keys.isEmpty())
+			keys = new ArrayList<IArtifactKey>(getCompositeArtifactRepository().query(ArtifactKeyQuery.ALL_KEYS, null).toUnmodifiableSet());
+		if (journal != null)
+			keys = skipJournaledKeys(keys);
+
+		IArtifactRepository baselineRepository = initializeBaseline();
+		IArtifactMirrorLog compLog = comparatorLog == null ? null : new SynchronizedMirrorLog(comparatorLog);
+		IArtifactRepository destination = SerializedArtifactRepository.wrap(destinationArtifactRepository, destinationLock);
+		AtomicBoolean failed = new AtomicBoolean(false);
+		int batchSize = Math.max(1, (keys.size() + threads * 4 - 1) / (threads * 4));
+		if (journal != null)
+			batchSize = Math.min(batchSize, JOURNAL_BATCH_SIZE);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		MultiStatus result = new MultiStatus(Activator.ID, 0, NLS.bind("Mirrored {0} artifacts with {1} threads", Integer.toString(keys.size()), Integer.toString(threads)), null); //$NON-NLS-1$
+		try {
+			List<Future<IStatus>> batches = new ArrayList<Future<IStatus>>();
+			for (int start = 0; start < keys.size(); start += batchSize) {
+				ArrayList<IArtifactKey> batch = new ArrayList<IArtifactKey>(keys.subList(start, Math.min(keys.size(), start + batchSize)));
+				batches.add(executor.submit(new MirroringBatch(batch, destination, baselineRepository, compLog, failed)));
+			}
+			for (Future<IStatus> batch : batches) {
+				IStatus status;
+				try {
+					status = batch.get();
+				} catch (ExecutionException e) {
+					status = new Status(IStatus.ERROR, Activator.ID, String.valueOf(e.getCause().getMessage()), e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					status = new Status(IStatus.ERROR, Activator.ID, String.valueOf(e.getMessage()), e);
+				}
+				if (status != null && !status.isOK())
+					result.add(status);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return result;
+	}
+
+	/**
+	 * Mirrors one batch of artifact keys.
+	 * Returns null when the batch was skipped because another one failed.
+	 */
+	private class MirroringBatch implements Callable<IStatus> {
+		private final ArrayList<IArtifactKey> keys;
+		private final IArtifactRepository destination;
+		private final IArtifactRepository baselineRepository;
+		private final IArtifactMirrorLog compLog;
+		private final AtomicBoolean failed;
+
+		MirroringBatch(ArrayList<IArtifactKey> keys, IArtifactRepository destination, IArtifactRepository baselineRepository, IArtifactMirrorLog compLog, AtomicBoolean failed) {
+			this.keys = keys;
+			this.destination = destination;
+			this.baselineRepository = baselineRepository;
+			this.compLog = compLog;
+			this.failed = failed;
+		}
+
+		public IStatus call() {
+			if (failOnError && failed.get())
+				return null;
+			Mirroring mirror = internalCreateMirroring(destination);
+			configureMirroring(mirror, keys, baselineRepository, compLog);
+			IStatus status = mirror.run(failOnError, verbose);
+			if (status.getSeverity() == IStatus.ERROR)
+				failed.set(true);
+			if (journal != null) {
+				//each artifact was saved in the destination when its stream was closed:
+				//query it without another batch adding descriptors at the same time.
+				synchronized (destinationLock) {
+					journalCompletedKeys(keys);
+				}
+			}
+			return status;
+		}
+	}
+
+	/**
+	 * @return The keys that are not recorded in the journal yet.
+	 */
+	private ArrayList<IArtifactKey> skipJournaledKeys(ArrayList<IArtifactKey> keys) {
+		ArrayList<IArtifactKey> remaining = new ArrayList<IArtifactKey>(keys.size());
+		for (IArtifactKey key : keys) {
+			if (!journal.isCompleted(key))
+				remaining.add(key);
+		}
+		int done = keys.size() - remaining.size();
+		if (done != 0) {
+			IStatus progress = new Status(IStatus.INFO, Activator.ID, NLS.bind("Resuming the mirror: {0} of {1} artifacts already mirrored according to {2} ({3} bytes)", //$NON-NLS-1$
+					new Object[] {Integer.toString(done), Integer.toString(keys.size()), journal.getFile(), Long.toString(journal.getCompletedBytes())}));
+			System.out.println(progress.getMessage());
+			if (mirrorLog != null)
+				mirrorLog.log(progress);
+		}
+		return remaining;
+	}
+
+	/**
+	 * Journals the keys of a batch that are now completely in the destination repository:
+	 * as many descriptors as in the source.
+	 * Called by the mirroring threads with the destinationLock held.
+	 */
+	private void journalCompletedKeys(List<IArtifactKey> keys) {
+		IArtifactRepository source = getCompositeArtifactRepository();
+		try {
+			for (IArtifactKey key : keys) {
+				IArtifactDescriptor[] copied = destinationArtifactRepository.getArtifactDescriptors(key);
+				if (copied.length == 0 || copied.length < source.getArtifactDescriptors(key).length)
+					continue;
+				String size = copied[0].getProperty(IArtifactDescriptor.DOWNLOAD_SIZE);
+				long bytes = -1;
+				if (size != null) {
+					try {
+						bytes = Long.parseLong(size);
+					} catch (NumberFormatException e) {
+						//unknown size
+					}
+				}
+				journal.record(key, bytes, copied[0].getProperty(IArtifactDescriptor.DOWNLOAD_MD5));
+			}
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind("Unable to write the mirror journal {0}", journal.getFile()), e)); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Serializes the writes of the mirroring threads into a shared log.
+	 */
+	private static class SynchronizedMirrorLog implements IArtifactMirrorLog {
+		private final IArtifactMirrorLog delegate;
+
+		SynchronizedMirrorLog(IArtifactMirrorLog delegate) {
+			this.delegate = delegate;
+		}
+
+		public synchronized void log(IArtifactDescriptor descriptor, IStatus status) {
+			delegate.log(descriptor, status);
+		}
+
+		public synchronized void log(IStatus status) {
+			delegate.log(status);
+		}
+
+		public synchronized void close() {
+			delegate.close();
+		}
 	}
 
 	private IArtifactRepository initializeBaseline() {
@@ -298,12 +548,25 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 	private void validate() throws ProvisionException {
 		if (sourceRepositories.isEmpty())
 			throw new ProvisionException(Messages.MirrorApplication_set_source_repositories);
-		if (!hasArtifactSources() && destinationArtifactRepository != null)
+		// the composite repositories of a kind are only created when there is a destination of that kind
+		if (destinationArtifactRepository != null && !hasArtifactSources())
 			throw new ProvisionException(Messages.MirrorApplication_artifactDestinationNoSource);
-		if (!hasMetadataSources() && destinationMetadataRepository != null)
+		if (destinationMetadataRepository != null && !hasMetadataSources())
 			throw new ProvisionException(Messages.MirrorApplication_metadataDestinationNoSource);
 	}
 
+	/*
+	 * @return true if one of the source repositories is a metadata repository.
+	 * Unlike hasMetadataSources it does not create the composite metadata repository.
+	 */
+	private boolean hasMetadataSourceDescriptors() {
+		for (RepositoryDescriptor repo : sourceRepositories) {
+			if (repo.isMetadata())
+				return true;
+		}
+		return false;
+	}
+
 	/*
 	 * If no IUs have been specified we want to mirror them all
 	 */
@@ -340,6 +603,43 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 			mirrorLog = getLog(mirrorLogFile, LOG_ROOT);
 	}
 
+	/*
+	 * Open the journal of the mirrored artifacts, if applicable
+	 */
+	private void initializeJournal() throws ProvisionException {
+		if (journalFile == null)
+			return;
+		if (destinationArtifactRepository == null) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind("The mirror journal {0} is not used: there is no destination artifact repository to resume", journalFile))); //$NON-NLS-1$
+			return;
+		}
+		try {
+			journal = new MirrorJournal(journalFile, resetJournal);
+		} catch (IOException e) {
+			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, NLS.bind("Unable to open the mirror journal {0}", journalFile), e)); //$NON-NLS-1$
+		}
+	}
+
+	private void finalizeJournal() {
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+	}
+
+	/*
+	 * Write the transfer metrics, if applicable
+	 */
+	private void finalizeMetrics() {
+		if (metricsFile == null)
+			return;
+		try {
+			XHttpClientMetrics.getDefault().write(metricsFile);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind("Unable to write the metrics in {0}", metricsFile), e)); //$NON-NLS-1$
+		}
+	}
+
 	/*
 	 * Finalize logs, if applicable
 	 */
@@ -363,7 +663,9 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 	private IQueryable<IInstallableUnit> slice(IProgressMonitor monitor) throws ProvisionException {
 		if (slicingOptions == null)
 			slicingOptions = new SlicingOptions();
-		PermissiveSlicer slicer = new PermissiveSlicer(getCompositeMetadataRepository(), slicingOptions.getFilter(), slicingOptions.includeOptionalDependencies(), slicingOptions.isEverythingGreedy(), slicingOptions.forceFilterTo(), slicingOptions.considerStrictDependencyOnly(), slicingOptions.followOnlyFilteredRequirements());
+		if (sliceThreads > 1 && sourceIUs.size() > 1)
+			return sliceConcurrently(monitor);
+		PermissiveSlicer slicer = createSlicer();
 		IQueryable<IInstallableUnit> slice = slicer.slice(sourceIUs.toArray(new IInstallableUnit[sourceIUs.size()]), monitor);
 
 		if (slice != null && slicingOptions.latestVersionOnly()) {
@@ -379,6 +681,73 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 		return slice;
 	}
 
+	private PermissiveSlicer createSlicer() {
+		return new PermissiveSlicer(getCompositeMetadataRepository(), slicingOptions.getFilter(), slicingOptions.includeOptionalDependencies(), slicingOptions.isEverythingGreedy(), slicingOptions.forceFilterTo(), slicingOptions.considerStrictDependencyOnly(), slicingOptions.followOnlyFilteredRequirements());
+	}
+
+	/*
+	 * Splits the roots in groups sliced in parallel. The slice of a set of roots
+	 * is the union of the slices of its groups: the results are merged without duplicates
+	 * and the latest versions are selected after the merge.
+	 */
+	private IQueryable<IInstallableUnit> sliceConcurrently(IProgressMonitor monitor) throws ProvisionException {
+		int groups = Math.min(sliceThreads, sourceIUs.size());
+		List<List<IInstallableUnit>> roots = new ArrayList<List<IInstallableUnit>>(groups);
+		for (int i = 0; i < groups; i++)
+			roots.add(new ArrayList<IInstallableUnit>());
+		for (int i = 0; i < sourceIUs.size(); i++)
+			roots.get(i % groups).add(sourceIUs.get(i));
+
+		ExecutorService executor = Executors.newFixedThreadPool(groups);
+		HashSet<IInstallableUnit> merged = new HashSet<IInstallableUnit>();
+		MultiStatus status = new MultiStatus(Activator.ID, 0, NLS.bind("Sliced {0} roots with {1} threads", Integer.toString(sourceIUs.size()), Integer.toString(groups)), null); //$NON-NLS-1$
+		IStatus failure = null;
+		try {
+			List<PermissiveSlicer> slicers = new ArrayList<PermissiveSlicer>(groups);
+			List<Future<IQueryable<IInstallableUnit>>> slices = new ArrayList<Future<IQueryable<IInstallableUnit>>>(groups);
+			for (final List<IInstallableUnit> group : roots) {
+				final PermissiveSlicer slicer = createSlicer();
+				slicers.add(slicer);
+				slices.add(executor.submit(new Callable<IQueryable<IInstallableUnit>>() {
+					public IQueryable<IInstallableUnit> call() {
+						return slicer.slice(group.toArray(new IInstallableUnit[group.size()]), new NullProgressMonitor());
+					}
+				}));
+			}
+			for (int i = 0; i < groups; i++) {
+				IQueryable<IInstallableUnit> slice;
+				try {
+					slice = slices.get(i).get();
+				} catch (ExecutionException e) {
+					throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, String.valueOf(e.getCause().getMessage()), e.getCause()));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, String.valueOf(e.getMessage()), e));
+				}
+				IStatus slicerStatus = slicers.get(i).getStatus();
+				if (slicerStatus.getSeverity() != IStatus.OK)
+					status.add(slicerStatus);
+				if (slice == null) {
+					if (failure == null)
+						failure = slicerStatus;
+					continue;
+				}
+				merged.addAll(slice.query(QueryUtil.createIUAnyQuery(), monitor).toUnmodifiableSet());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		if (!status.isOK() && mirrorLog != null)
+			mirrorLog.log(status);
+		if (failure != null)
+			throw new ProvisionException(failure);
+
+		IQueryable<IInstallableUnit> slice = new CollectionResult<IInstallableUnit>(merged);
+		if (slicingOptions.latestVersionOnly())
+			slice = slice.query(QueryUtil.createLatestIUQuery(), monitor);
+		return slice;
+	}
+
 	public void setSlicingOptions(SlicingOptions options) {
 		slicingOptions = options;
 	}
@@ -465,4 +834,32 @@ public class MirrorApplicationForked extends AbstractApplication implements IApp
 	public void setComparatorExclusions(IQuery<IArtifactDescriptor> exclusions) {
 		compareExclusions = exclusions;
 	}
+
+	/*
+	 * Set the journal of the mirrored artifacts. A restarted mirror skips the artifacts it records.
+	 */
+	public void setJournal(File journal) {
+		this.journalFile = journal;
+	}
+
+	/*
+	 * Set the number of threads used to mirror the artifacts. 1 mirrors them sequentially.
+	 */
+	public void setThreads(int value) {
+		threads = value;
+	}
+
+	/*
+	 * Set the number of threads used to slice the roots. 1 slices them all at once.
+	 */
+	public void setSliceThreads(int value) {
+		sliceThreads = value;
+	}
+
+	/*
+	 * Set the file where the per host transfer metrics are written at the end of the mirror.
+	 */
+	public void setMetrics(File metrics) {
+		this.metricsFile = metrics;
+	}
 }
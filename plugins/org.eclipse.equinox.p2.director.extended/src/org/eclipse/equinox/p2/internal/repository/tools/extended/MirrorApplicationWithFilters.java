@@ -20,11 +20,6 @@ import org.eclipse.equinox.internal.p2.artifact.repository.extended.ArtifactRepo
 import org.eclipse.equinox.p2.director.extended.ArgumentsLoader;
 import org.eclipse.equinox.p2.internal.repository.mirroring.Mirroring;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
-import org.eclipse.equinox.p2.metadata.IInstallableUnit;
-import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
-import org.eclipse.equinox.p2.metadata.expression.IExpression;
-import org.eclipse.equinox.p2.query.ExpressionMatchQuery;
-import org.eclipse.equinox.p2.query.ExpressionQuery;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
@@ -42,8 +37,8 @@ import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
  * It will be matched against the artifact ids that are mirrored.
  * </p>
  * <p>
- * The union of all the p2-query defined from those arguments is the resulting
- * query that selects the artifacts to exclude from the mirror.
+ * The union of all the patterns defined from those arguments is compiled once
+ * into an {@link ArtifactIdMatcher} that selects the artifacts to exclude from the mirror.
  * </p>
  * 
  * @author hmalphettes
@@ -51,27 +46,12 @@ import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
  */
 public class MirrorApplicationWithFilters extends MirrorApplicationForked {
 
-	/**
-	 * @see QueryUtil#createIUQuery
-	 */
-	//private static final IExpression regexpMatchIU_ID = ExpressionUtil.parse("artifactKey.id ~= $0");
-	private static IExpression simplePatternAgainstArtifactID(boolean isArtifactDescriptor, String... simplePatterns) {
-		StringBuilder sb = new StringBuilder();
-		String member = isArtifactDescriptor ? "artifactKey.id" : "id";
-		for (String simplePattern : simplePatterns) {
-			if (sb.length() != 0) {
-				sb.append(" || ");
-			}
-			sb.append(member + " ~= /" + simplePattern + "/");
-		}
-		return ExpressionUtil.parse(sb.toString());
-	}
-
-	public static final IQuery<IArtifactDescriptor> NO_UNITS =
-		new ExpressionQuery<IArtifactDescriptor>(IArtifactDescriptor.class, "limit(0)");
+	public static final IQuery<IArtifactDescriptor> NO_UNITS = ArtifactKeyFilters.NO_UNITS;
 
 	protected IQuery<IArtifactDescriptor> excludingQuery;
 	protected IQuery<IArtifactKey> includingQuery;
+	protected ArtifactIdMatcher excludingMatcher;
+	protected ArtifactIdMatcher includingMatcher;
 	
 //	public MirrorApplicationWithFilters() {
 //		//this will create the provisioning agent
@@ -113,12 +93,14 @@ public class MirrorApplicationWithFilters extends MirrorApplicationForked {
 		
 		super.initializeFromArguments(args);
 		if (excludes.size() != 0) {
-			excludingQuery = createExcludingQuery(
+			excludingMatcher = ArtifactIdMatcher.compile(
 				excludes.toArray(new String[excludes.size()]));
+			excludingQuery = createExcludingQuery(excludingMatcher);
 		}
 		if (includes.size() != 0) {
-			includingQuery = createIncludingQuery(
+			includingMatcher = ArtifactIdMatcher.compile(
 				includes.toArray(new String[includes.size()]));
+			includingQuery = createIncludingQuery(includingMatcher);
 		}
 		StringBuilder sb = new StringBuilder("Executing mirror with");
 		for (String a : args) {
@@ -157,30 +139,31 @@ public class MirrorApplicationWithFilters extends MirrorApplicationForked {
 	}
 	
 	/**
-	 * Creates a query that will match any {@link IInstallableUnit} if its id matches
-	 * the passed regexp.
-	 * Also matches the version if no version is passed then any version will do.
-	 * 
-	 * @param id The installable unit id to match, or <code>null</code> to match nothing
-	 * @return a query that matches IU's by id
+	 * @see ArtifactKeyFilters#createExcludingQuery(String...)
 	 */
 	public static IQuery<IArtifactDescriptor> createExcludingQuery(String... idRegexp) {
-		return idRegexp == null ? NO_UNITS
-				: new ExpressionMatchQuery<IArtifactDescriptor>(
-						IArtifactDescriptor.class, simplePatternAgainstArtifactID(true, idRegexp));
+		return ArtifactKeyFilters.createExcludingQuery(idRegexp);
 	}
 
 	/**
-	 * Creates a query that will match any {@link IInstallableUnit} if its id matches
-	 * the passed regexp.
-	 * Also matches the version if no version is passed then any version will do.
-	 * 
-	 * @param id The installable unit id to match, or <code>null</code> to match nothing
-	 * @return a query that matches IU's by id
+	 * @see ArtifactKeyFilters#createExcludingQuery(ArtifactIdMatcher)
+	 */
+	public static IQuery<IArtifactDescriptor> createExcludingQuery(ArtifactIdMatcher matcher) {
+		return ArtifactKeyFilters.createExcludingQuery(matcher);
+	}
+
+	/**
+	 * @see ArtifactKeyFilters#createIncludingQuery(String...)
 	 */
 	public static IQuery<IArtifactKey> createIncludingQuery(String... simplePatterns) {
-		return new ExpressionMatchQuery<IArtifactKey>(
-						IArtifactKey.class, simplePatternAgainstArtifactID(false, simplePatterns));
+		return ArtifactKeyFilters.createIncludingQuery(simplePatterns);
+	}
+
+	/**
+	 * @see ArtifactKeyFilters#createIncludingQuery(ArtifactIdMatcher)
+	 */
+	public static IQuery<IArtifactKey> createIncludingQuery(ArtifactIdMatcher matcher) {
+		return ArtifactKeyFilters.createIncludingQuery(matcher);
 	}
 
 	/**
@@ -190,9 +173,19 @@ public class MirrorApplicationWithFilters extends MirrorApplicationForked {
 	@Override
 	protected void internalSetMirroring(Mirroring mirror,
 			ArrayList<IArtifactKey> keys) {
-		if (excludingQuery == null && includingQuery == null) {
-			super.internalSetMirroring(mirror, keys);
-			return;
+		super.internalSetMirroring(mirror, internalSelectArtifactKeys(keys));
+	}
+
+	/**
+	 * Applies the inclusions and the exclusions to the keys to mirror.
+	 * The exclusions are the compiled -exclude patterns or, when a subclass sets
+	 * the excludingQuery without a matcher, the descriptors matched by that query.
+	 */
+	@Override
+	protected ArrayList<IArtifactKey> internalSelectArtifactKeys(
+			ArrayList<IArtifactKey> keys) {
+		if (excludingMatcher == null && excludingQuery == null && includingQuery == null) {
+			return keys;
 		}
 		if (keys == null || keys.size() == 0) {
 			//if no keys were passed then select all.
@@ -203,25 +196,16 @@ public class MirrorApplicationWithFilters extends MirrorApplicationForked {
 			keys = new ArrayList<IArtifactKey>(result.toSet());
 		}
 		
-		if (excludingQuery != null) {
+		if (excludingMatcher != null) {
+			keys = ArtifactKeyFilters.removeExcludedKeys(keys, excludingMatcher);
+		} else if (excludingQuery != null) {
 			//descriptor queryable must be called after the artifact keys have been queried
 			//otherwise nothing will be there.
 			IQueryResult<IArtifactDescriptor> exclusions = getCompositeArtifactRepository()
 				.descriptorQueryable().query(excludingQuery, null);
-	
-			for (IArtifactDescriptor d : exclusions.toSet()) {
-				//this could be optimized although it probably won't make a big difference.
-				ListIterator<IArtifactKey> kIt = keys.listIterator();
-				while (kIt.hasNext()) {
-					IArtifactKey kI = kIt.next();
-					if (kI.getId().equals(d.getArtifactKey().getId())) {
-						kIt.remove();
-						break;
-					}
-				}
-			}
+			keys = ArtifactKeyFilters.removeExcludedKeys(keys, exclusions);
 		}
-		super.internalSetMirroring(mirror, keys);
+		return keys;
 	}
 	
 	
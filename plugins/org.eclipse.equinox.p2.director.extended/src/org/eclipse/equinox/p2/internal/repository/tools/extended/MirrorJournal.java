@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.internal.repository.tools.extended;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+
+/**
+ * Append-only journal of the artifacts already copied into the destination of a mirror.
+ * <p>
+ * One line is appended for each completed artifact key:
+ * <code>classifier,id,version&lt;TAB&gt;size&lt;TAB&gt;md5</code>.
+ * When the mirror is restarted the journal is read back so that the completed keys
+ * are skipped without looking them up in the destination repository.
+ * A line truncated by a crash is cut off the journal before it is appended to.
+ * </p>
+ */
+public class MirrorJournal {
+
+	private final File file;
+	private final Set<String> completed = new HashSet<String>();
+	private long completedBytes = 0;
+	private Writer writer;
+
+	/**
+	 * @param file The journal file
+	 * @param reset true to discard the previous content of the journal;
+	 * for example when the destination repository is cleaned.
+	 */
+	public MirrorJournal(File file, boolean reset) throws IOException {
+		this.file = file;
+		if (reset)
+			file.delete();
+		else if (file.exists()) {
+			truncateTornLine();
+			read();
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8")); //$NON-NLS-1$
+	}
+
+	/**
+	 * Cuts the journal after its last complete line so that the next entry does not extend a torn one.
+	 */
+	private void truncateTornLine() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			long end = raf.length();
+			byte[] buffer = new byte[4096];
+			while (end > 0) {
+				int len = (int) Math.min(buffer.length, end);
+				raf.seek(end - len);
+				raf.readFully(buffer, 0, len);
+				int i = len - 1;
+				while (i >= 0 && buffer[i] != '\n')
+					i--;
+				if (i >= 0) {
+					end = end - len + i + 1;
+					break;
+				}
+				end -= len;
+			}
+			if (end < raf.length())
+				raf.setLength(end);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t"); //$NON-NLS-1$
+				if (fields.length < 3)
+					continue;
+				if (completed.add(fields[0])) {
+					try {
+						completedBytes += Long.parseLong(fields[1]);
+					} catch (NumberFormatException e) {
+						//unknown size.
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized boolean isCompleted(IArtifactKey key) {
+		return completed.contains(key.toExternalForm());
+	}
+
+	/**
+	 * Appends a completed artifact to the journal.
+	 * @param size The size in bytes of the artifact or -1 if unknown
+	 * @param md5 The md5 checksum of the artifact or null if unknown
+	 */
+	public synchronized void record(IArtifactKey key, long size, String md5) throws IOException {
+		String entry = key.toExternalForm();
+		writer.write(entry);
+		writer.write('\t');
+		writer.write(Long.toString(size));
+		writer.write('\t');
+		writer.write(md5 == null ? "-" : md5); //$NON-NLS-1$
+		writer.write('\n');
+		writer.flush();
+		if (completed.add(entry) && size > 0)
+			completedBytes += size;
+	}
+
+	/**
+	 * @return The number of artifacts recorded in the journal.
+	 */
+	public synchronized int getCompletedCount() {
+		return completed.size();
+	}
+
+	/**
+	 * @return The sum of the sizes of the artifacts recorded in the journal.
+	 */
+	public synchronized long getCompletedBytes() {
+		return completedBytes;
+	}
+
+	public synchronized void close() {
+		if (writer == null)
+			return;
+		try {
+			writer.close();
+		} catch (IOException e) {
+			//nevermind
+		}
+		writer = null;
+	}
+
+}
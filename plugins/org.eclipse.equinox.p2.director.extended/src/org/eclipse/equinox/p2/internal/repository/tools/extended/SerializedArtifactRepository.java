@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2011, Intalio Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Intalio Inc. - initial API and implementation
+ */
+package org.eclipse.equinox.p2.internal.repository.tools.extended;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.provisional.p2.repository.IStateful;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+
+/**
+ * Serializes the changes made to a destination artifact repository by several mirroring threads.
+ * <p>
+ * Every call to the repository is made under the lock. The streams returned by
+ * <code>getOutputStream</code> are written without it so the artifacts are still
+ * downloaded in parallel; they are closed under the lock because closing the stream
+ * is what adds the descriptor to the repository and saves it.
+ * </p>
+ * <p>
+ * The wrapper is a dynamic proxy that implements all the interfaces of the repository
+ * so that the mirroring still sees an IFileArtifactRepository when it is one.
+ * </p>
+ */
+public class SerializedArtifactRepository implements InvocationHandler {
+
+	private final IArtifactRepository repository;
+	private final Object lock;
+
+	/**
+	 * @param repository The repository written by several threads
+	 * @param lock The lock held during each call to the repository
+	 * @return A repository that delegates to the given one under the lock.
+	 */
+	public static IArtifactRepository wrap(IArtifactRepository repository, Object lock) {
+		Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+		for (Class<?> c = repository.getClass(); c != null; c = c.getSuperclass())
+			collectInterfaces(c, interfaces);
+		return (IArtifactRepository) Proxy.newProxyInstance(repository.getClass().getClassLoader(),
+				interfaces.toArray(new Class<?>[interfaces.size()]), new SerializedArtifactRepository(repository, lock));
+	}
+
+	private static void collectInterfaces(Class<?> c, Set<Class<?>> interfaces) {
+		for (Class<?> i : c.getInterfaces()) {
+			if (interfaces.add(i))
+				collectInterfaces(i, interfaces);
+		}
+	}
+
+	private SerializedArtifactRepository(IArtifactRepository repository, Object lock) {
+		this.repository = repository;
+		this.lock = lock;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Object result;
+		synchronized (lock) {
+			try {
+				result = method.invoke(repository, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		if (result instanceof OutputStream && method.getName().equals("getOutputStream")) //$NON-NLS-1$
+			return new SerializedOutputStream((OutputStream) result);
+		return result;
+	}
+
+	/**
+	 * Writes without the lock and closes under the lock.
+	 * Forwards the status set by the source repository to the stream of the destination:
+	 * the destination discards the artifact when the status is not OK.
+	 */
+	private class SerializedOutputStream extends OutputStream implements IStateful {
+		private final OutputStream delegate;
+		private IStatus status = Status.OK_STATUS;
+
+		SerializedOutputStream(OutputStream delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			delegate.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			delegate.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized (lock) {
+				delegate.close();
+			}
+		}
+
+		public IStatus getStatus() {
+			if (delegate instanceof IStateful)
+				return ((IStateful) delegate).getStatus();
+			return status;
+		}
+
+		public void setStatus(IStatus status) {
+			if (delegate instanceof IStateful)
+				((IStateful) delegate).setStatus(status);
+			else
+				this.status = status;
+		}
+	}
+
+}